@@ -0,0 +1,18 @@
+package com.mengdd.helloandroidutils;
+
+import com.mengdd.utils.android.ThreadPolicy;
+import android.app.Application;
+
+public class HelloApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // report blocking utility calls made on the UI thread, installed
+        // once per process; ThreadPolicy.setFailFast(BuildConfig.DEBUG)
+        // makes them throw instead
+        ThreadPolicy.addCheck(ThreadPolicy.MAIN_THREAD);
+    }
+
+}
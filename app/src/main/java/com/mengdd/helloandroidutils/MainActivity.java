@@ -1,7 +1,8 @@
 package com.mengdd.helloandroidutils;
 
-import java.io.File;
+import com.mengdd.utils.FileUtils;
 import com.mengdd.utils.android.DirectoryUtils;
+import com.mengdd.utils.android.PrefUtils;
 import android.os.Bundle;
 import android.os.Environment;
 import android.app.Activity;
@@ -37,12 +38,19 @@ public class MainActivity extends Activity {
                 String root = Environment.getExternalStorageDirectory()
                         .getPath();
 
-                File file = new File(root + "/download" + "/wifi_update");
-
-                file.mkdirs();
+                // through FileUtils so the main thread check reports it
+                FileUtils.createDir(root + "/download" + "/wifi_update");
 
             }
         });
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // preferences writes are saved in the background, make sure they
+        // are on disk before the process may be killed
+        PrefUtils.flush();
+    }
+
 }
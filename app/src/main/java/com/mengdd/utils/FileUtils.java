@@ -16,12 +16,15 @@
  */
 package com.mengdd.utils;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import com.mengdd.utils.android.LogUtils;
+import com.mengdd.utils.android.ThreadPolicy;
 
 /*
  * FileUtils copied from org.apache.commons.io.FileUtils
@@ -30,6 +33,47 @@ public class FileUtils {
 
     private static final String LOG_TAG = "FileUtils";
 
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    /**
+     * Told about the size changes made through this class: streams from
+     * {@link #openOutputStream(File, boolean)} when they are closed, which
+     * covers {@link #copyFile(File, File)}, and the files removed by the
+     * delete methods.
+     */
+    public interface FileChangeListener {
+        /**
+         * @param oldLength
+         *            0 if the file didn't exist
+         * @param newLength
+         *            0 if the file was deleted
+         */
+        void onFileChanged(File file, long oldLength, long newLength);
+    }
+
+    private static volatile FileChangeListener sFileChangeListener;
+
+    /**
+     * @param listener
+     *            null to stop reporting; there is one listener, setting one
+     *            replaces the previous
+     */
+    public static synchronized void setFileChangeListener(
+            FileChangeListener listener) {
+        sFileChangeListener = listener;
+    }
+
+    /**
+     * Stop reporting if the listener is still the one set, so it doesn't
+     * remove a listener which replaced it.
+     */
+    public static synchronized void clearFileChangeListener(
+            FileChangeListener listener) {
+        if (sFileChangeListener == listener) {
+            sFileChangeListener = null;
+        }
+    }
+
     /**
      * Construct a file from the set of name elements.
      *
@@ -140,29 +184,164 @@ public class FileUtils {
      *             if a parent directory needs creating but that fails
      */
     public static FileOutputStream openOutputStream(File file, boolean append) throws IOException {
-        if (file.exists()) {
-            if (file.isDirectory()) {
-                throw new IOException("File '" + file + "' exists but is a directory");
-            }
-            if (file.canWrite() == false) {
-                throw new IOException("File '" + file + "' cannot be written to");
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("openOutputStream");
+        try {
+            long oldLength = 0;
+            if (file.exists()) {
+                if (file.isDirectory()) {
+                    throw new IOException("File '" + file + "' exists but is a directory");
+                }
+                if (file.canWrite() == false) {
+                    throw new IOException("File '" + file + "' cannot be written to");
+                }
+                oldLength = file.length();
             }
-        }
-        else {
-            File parent = file.getParentFile();
-            if (parent != null) {
-                if (!parent.mkdirs() && !parent.isDirectory()) {
-                    throw new IOException("Directory '" + parent + "' could not be created");
+            else {
+                File parent = file.getParentFile();
+                if (parent != null) {
+                    if (!parent.mkdirs() && !parent.isDirectory()) {
+                        throw new IOException("Directory '" + parent + "' could not be created");
+                    }
                 }
             }
+            FileChangeListener listener = sFileChangeListener;
+            if (listener == null) {
+                return new FileOutputStream(file, append);
+            }
+            return new ReportingOutputStream(file, append, oldLength, listener);
+        }
+        finally {
+            ThreadPolicy.end(violation);
         }
-        return new FileOutputStream(file, append);
     }
 
     public static FileOutputStream openOutputStream(File file) throws IOException {
         return openOutputStream(file, false);
     }
 
+    /**
+     * Reports the size change of the file to the listener when closed.
+     */
+    private static final class ReportingOutputStream extends FileOutputStream {
+        private final File mFile;
+        private final long mOldLength;
+        private final FileChangeListener mListener;
+        private boolean mClosed;
+
+        ReportingOutputStream(File file, boolean append, long oldLength,
+                FileChangeListener listener) throws FileNotFoundException {
+            super(file, append);
+            mFile = file;
+            mOldLength = oldLength;
+            mListener = listener;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                boolean report;
+                synchronized (this) {
+                    report = !mClosed;
+                    mClosed = true;
+                }
+                if (report) {
+                    reportChange(mListener, mFile, mOldLength, mFile.length());
+                }
+            }
+        }
+    }
+
+    private static void reportChange(FileChangeListener listener, File file,
+            long oldLength, long newLength) {
+        if (oldLength == newLength) {
+            return;
+        }
+        try {
+            listener.onFileChanged(file, oldLength, newLength);
+        }
+        catch (RuntimeException e) {
+            LogUtils.e(LOG_TAG, "FileChangeListener failed for " + file, e);
+        }
+    }
+
+    /**
+     * Delete a file, not a directory, and report it to the listener.
+     */
+    private static boolean deleteFile(File file) {
+        FileChangeListener listener = sFileChangeListener;
+        long length = listener == null ? 0 : file.length();
+        boolean deleted = file.delete();
+        if (deleted && listener != null) {
+            reportChange(listener, file, length, 0);
+        }
+        return deleted;
+    }
+
+    /**
+     * Copies a file to a new location preserving the file date. The
+     * directory holding the destination file is created if it does not
+     * exist, an existing destination file is overwritten.
+     *
+     * @param srcFile
+     *            an existing file to copy, must not be {@code null}
+     * @param destFile
+     *            the new file, must not be {@code null}
+     * @throws IOException
+     *             if source or destination is invalid or an IO error occurs
+     *             during copying
+     */
+    public static void copyFile(File srcFile, File destFile) throws IOException {
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("copyFile");
+        try {
+            if (!srcFile.exists()) {
+                throw new FileNotFoundException("Source '" + srcFile + "' does not exist");
+            }
+            if (srcFile.isDirectory()) {
+                throw new IOException("Source '" + srcFile + "' exists but is a directory");
+            }
+            if (srcFile.getCanonicalPath().equals(destFile.getCanonicalPath())) {
+                throw new IOException("Source '" + srcFile + "' and destination '" + destFile + "' are the same");
+            }
+            InputStream input = null;
+            FileOutputStream output = null;
+            try {
+                input = openInputStream(srcFile);
+                output = openOutputStream(destFile);
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int n;
+                while ((n = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, n);
+                }
+                output.close();
+                output = null;
+            }
+            finally {
+                closeQuietly(input);
+                closeQuietly(output);
+            }
+            if (srcFile.length() != destFile.length()) {
+                throw new IOException("Failed to copy full contents from '" + srcFile + "' to '" + destFile + "'");
+            }
+            destFile.setLastModified(srcFile.lastModified());
+        }
+        finally {
+            ThreadPolicy.end(violation);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
     /**
      * Cleans a directory without deleting it.
      *
@@ -172,33 +351,39 @@ public class FileUtils {
      *             in case cleaning is unsuccessful
      */
     public static void cleanDirectory(File directory) throws IOException {
-        if (!directory.exists()) {
-            String message = directory + " does not exist";
-            throw new IllegalArgumentException(message);
-        }
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("cleanDirectory");
+        try {
+            if (!directory.exists()) {
+                String message = directory + " does not exist";
+                throw new IllegalArgumentException(message);
+            }
 
-        if (!directory.isDirectory()) {
-            String message = directory + " is not a directory";
-            throw new IllegalArgumentException(message);
-        }
+            if (!directory.isDirectory()) {
+                String message = directory + " is not a directory";
+                throw new IllegalArgumentException(message);
+            }
 
-        File[] files = directory.listFiles();
-        if (files == null) { // null if security restricted
-            throw new IOException("Failed to list contents of " + directory);
-        }
+            File[] files = directory.listFiles();
+            if (files == null) { // null if security restricted
+                throw new IOException("Failed to list contents of " + directory);
+            }
 
-        IOException exception = null;
-        for (File file : files) {
-            try {
-                forceDelete(file);
+            IOException exception = null;
+            for (File file : files) {
+                try {
+                    forceDelete(file);
+                }
+                catch (IOException ioe) {
+                    exception = ioe;
+                }
             }
-            catch (IOException ioe) {
-                exception = ioe;
+
+            if (null != exception) {
+                throw exception;
             }
         }
-
-        if (null != exception) {
-            throw exception;
+        finally {
+            ThreadPolicy.end(violation);
         }
     }
 
@@ -212,15 +397,21 @@ public class FileUtils {
      *             in case deletion is unsuccessful
      */
     public static void deleteDirectory(File directory) throws IOException {
-        if (!directory.exists()) {
-            return;
-        }
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("deleteDirectory");
+        try {
+            if (!directory.exists()) {
+                return;
+            }
 
-        cleanDirectory(directory);
+            cleanDirectory(directory);
 
-        if (!directory.delete()) {
-            String message = "Unable to delete directory " + directory + ".";
-            throw new IOException(message);
+            if (!directory.delete()) {
+                String message = "Unable to delete directory " + directory + ".";
+                throw new IOException(message);
+            }
+        }
+        finally {
+            ThreadPolicy.end(violation);
         }
     }
 
@@ -245,19 +436,25 @@ public class FileUtils {
      *             in case deletion is unsuccessful
      */
     public static void forceDelete(File file) throws IOException {
-        if (file.isDirectory()) {
-            deleteDirectory(file);
-        }
-        else {
-            boolean filePresent = file.exists();
-            if (!file.delete()) {
-                if (!filePresent) {
-                    throw new FileNotFoundException("File does not exist: " + file);
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("forceDelete");
+        try {
+            if (file.isDirectory()) {
+                deleteDirectory(file);
+            }
+            else {
+                boolean filePresent = file.exists();
+                if (!deleteFile(file)) {
+                    if (!filePresent) {
+                        throw new FileNotFoundException("File does not exist: " + file);
+                    }
+                    String message = "Unable to delete file: " + file;
+                    throw new IOException(message);
                 }
-                String message = "Unable to delete file: " + file;
-                throw new IOException(message);
             }
         }
+        finally {
+            ThreadPolicy.end(violation);
+        }
     }
 
     /**
@@ -277,22 +474,28 @@ public class FileUtils {
      *
      */
     public static boolean deleteQuietly(File file) {
-        if (file == null) {
-            return false;
-        }
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("deleteQuietly");
         try {
-            if (file.isDirectory()) {
-                cleanDirectory(file);
+            if (file == null) {
+                return false;
+            }
+            try {
+                if (file.isDirectory()) {
+                    cleanDirectory(file);
+                }
+            }
+            catch (Exception ignored) {
             }
-        }
-        catch (Exception ignored) {
-        }
 
-        try {
-            return file.delete();
+            try {
+                return file.isDirectory() ? file.delete() : deleteFile(file);
+            }
+            catch (Exception ignored) {
+                return false;
+            }
         }
-        catch (Exception ignored) {
-            return false;
+        finally {
+            ThreadPolicy.end(violation);
         }
     }
 
@@ -312,22 +515,28 @@ public class FileUtils {
      *             but is not a directory
      */
     public static void forceMkdir(File directory) throws IOException {
-        if (directory.exists()) {
-            if (!directory.isDirectory()) {
-                String message = "File " + directory + " exists and is "
-                        + "not a directory. Unable to create directory.";
-                throw new IOException(message);
-            }
-        }
-        else {
-            if (!directory.mkdirs()) {
-                // Double-check that some other thread or process hasn't made
-                // the directory in the background
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("forceMkdir");
+        try {
+            if (directory.exists()) {
                 if (!directory.isDirectory()) {
-                    String message = "Unable to create directory " + directory;
+                    String message = "File " + directory + " exists and is "
+                            + "not a directory. Unable to create directory.";
                     throw new IOException(message);
                 }
             }
+            else {
+                if (!directory.mkdirs()) {
+                    // Double-check that some other thread or process hasn't made
+                    // the directory in the background
+                    if (!directory.isDirectory()) {
+                        String message = "Unable to create directory " + directory;
+                        throw new IOException(message);
+                    }
+                }
+            }
+        }
+        finally {
+            ThreadPolicy.end(violation);
         }
     }
 
@@ -367,6 +576,20 @@ public class FileUtils {
 
     }
 
+    private static long sizeOfTree(File file) {
+        if (!file.exists()) {
+            String message = file + " does not exist";
+            throw new IllegalArgumentException(message);
+        }
+
+        if (file.isDirectory()) {
+            return sizeOfDirectoryTree(file);
+        }
+        else {
+            return file.length();
+        }
+    }
+
     /**
      * Counts the size of a directory recursively (sum of the length of all
      * files).
@@ -382,6 +605,17 @@ public class FileUtils {
     public static long sizeOfDirectory(File directory) {
         checkDirectory(directory);
 
+        // reported once per walk, the recursion below is not instrumented
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("sizeOfDirectory");
+        try {
+            return sizeOfDirectoryTree(directory);
+        }
+        finally {
+            ThreadPolicy.end(violation);
+        }
+    }
+
+    private static long sizeOfDirectoryTree(File directory) {
         final File[] files = directory.listFiles();
         if (files == null) { // null if security restricted
             return 0L;
@@ -390,7 +624,7 @@ public class FileUtils {
 
         for (final File file : files) {
 
-            size += sizeOf(file);
+            size += sizeOfTree(file);
             if (size < 0) {
                 break;
 
@@ -428,53 +662,70 @@ public class FileUtils {
      * @return
      */
     public static File createTempFile(File dirFile) {
-        File tmpFile = null;
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("createTempFile");
         try {
-            tmpFile = File.createTempFile(TEMP_FILE_PREFIX, null, dirFile);
+            File tmpFile = null;
+            try {
+                tmpFile = File.createTempFile(TEMP_FILE_PREFIX, null, dirFile);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            return tmpFile;
         }
-        catch (IOException e) {
-            e.printStackTrace();
+        finally {
+            ThreadPolicy.end(violation);
         }
-        return tmpFile;
     }
 
     public static boolean createSingleDir(String path) {
-        LogUtils.i(LOG_TAG, "create sub dir: " + path);
-        if (null == path) {
-            return false;
-        }
-        File f = new File(path);
-        if (f.exists()) {
-            if (f.isDirectory()) {
-                return true;
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("createSingleDir");
+        try {
+            LogUtils.i(LOG_TAG, "create sub dir: " + path);
+            if (null == path) {
+                return false;
             }
-            else {
-                // exist but is a file
-                f.delete();
+            File f = new File(path);
+            if (f.exists()) {
+                if (f.isDirectory()) {
+                    return true;
+                }
+                else {
+                    // exist but is a file
+                    f.delete();
+                }
+
             }
 
+            // if file not exists
+            return f.mkdir();
+        }
+        finally {
+            ThreadPolicy.end(violation);
         }
-
-        // if file not exists
-        return f.mkdir();
     }
 
     public static boolean createDirForcely(String dirPath) {
-        LogUtils.i(LOG_TAG, "create dir forcely: " + dirPath);
-        if (null == dirPath) {
-            return false;
-        }
-        File file = new File(dirPath);
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("createDirForcely");
+        try {
+            LogUtils.i(LOG_TAG, "create dir forcely: " + dirPath);
+            if (null == dirPath) {
+                return false;
+            }
+            File file = new File(dirPath);
 
-        File parent = null;
-        parent = file.getParentFile();
+            File parent = null;
+            parent = file.getParentFile();
 
-        if (null != parent) {
-            // Recursion
-            createDirForcely(parent.toString());
+            if (null != parent) {
+                // Recursion
+                createDirForcely(parent.toString());
+            }
+            return createSingleDir(file.toString());
+        }
+        finally {
+            ThreadPolicy.end(violation);
         }
-        return createSingleDir(file.toString());
-
     }
 
     /**
@@ -484,16 +735,22 @@ public class FileUtils {
      * @return
      */
     public static boolean createDir(String dirPath) {
-        LogUtils.i(LOG_TAG, "create dir: " + dirPath);
-        File f = new File(dirPath);
-        if (f.exists()) {
-            if (f.isDirectory()) {
-                return true;
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("createDir");
+        try {
+            LogUtils.i(LOG_TAG, "create dir: " + dirPath);
+            File f = new File(dirPath);
+            if (f.exists()) {
+                if (f.isDirectory()) {
+                    return true;
+                }
+                f.delete();
+                return f.mkdir();
             }
-            f.delete();
-            return f.mkdir();
+            return f.mkdirs();
+        }
+        finally {
+            ThreadPolicy.end(violation);
         }
-        return f.mkdirs();
     }
 
     /**
@@ -502,20 +759,24 @@ public class FileUtils {
      * @param filename
      */
     public static void createFile(String filename) {
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("createFile");
+        try {
+            File file = new File(filename);
 
-        File file = new File(filename);
-
-        if (!file.exists()) {
-            try {
+            if (!file.exists()) {
+                try {
 
-                file.getParentFile().mkdirs();
-                file.createNewFile();
-            }
-            catch (IOException e) {
-                e.printStackTrace();
+                    file.getParentFile().mkdirs();
+                    file.createNewFile();
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
-
+        finally {
+            ThreadPolicy.end(violation);
+        }
     }
 
 }
@@ -1,11 +1,27 @@
 package com.mengdd.utils;
 
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.mengdd.utils.reflect.ClassModel;
+import com.mengdd.utils.reflect.ClassModelFormatter;
+import com.mengdd.utils.reflect.ClassPreloader;
+import com.mengdd.utils.reflect.ConstructorFactory;
+import com.mengdd.utils.reflect.FieldAccessor;
+import com.mengdd.utils.reflect.FieldCopier;
+import com.mengdd.utils.reflect.MethodInvoker;
+import com.mengdd.utils.reflect.ObjectFactory;
+import com.mengdd.utils.reflect.ReflectCache;
+import com.mengdd.utils.reflect.ReflectException;
+import com.mengdd.utils.reflect.ReflectMetrics;
+import com.mengdd.utils.reflect.ReflectRegistry;
+import com.mengdd.utils.reflect.StaticDispatchTable;
+import com.mengdd.utils.reflect.StaticInvoker;
 
 /**
  *
@@ -22,34 +38,112 @@ public class ReflectUtils {
      * 创建类的实例，调用类的无参构造方法
      *
      * @param className
-     * @return
+     * @return 失败时返回null，需要知道失败原因时使用{@link #getFactory(String)}
      */
     public static Object newInstance(String className) {
 
         Object instance = null;
 
         try {
-            Class<?> clazz = Class.forName(className);
-            instance = clazz.newInstance();
+            instance = getFactory(className).create();
         }
-        catch (ClassNotFoundException e) {
+        catch (ReflectException e) {
+            // class not found; abstract class, interface, array class,
+            // primitive type; class or nullary constructor not public; or the
+            // constructor threw a checked exception
             e.printStackTrace();
         }
-        catch (InstantiationException e) {
-            // if this Class represents an abstract class, an interface, an
-            // array class, a primitive type, or void; or if the class has no
-            // nullary constructor; or if the instantiation fails for some other
-            // reason.
 
-            e.printStackTrace();
+        return instance;
+
+    }
+
+    /**
+     * 获取类的public无参构造方法的工厂，构造方法只查找一次，工厂可以重复使用。
+     * 标注了{@link com.mengdd.utils.reflect.Reflective}的类使用编译时生成的工厂，不经过反射
+     *
+     * @param className
+     * @return
+     * @throws ReflectException
+     *             类不存在，不能实例化，类或者无参构造方法不是public的，或者没有无参构造方法
+     */
+    public static ObjectFactory<?> getFactory(String className) {
+        ObjectFactory<?> factory = ReflectRegistry.getFactory(className);
+        if (factory != null) {
+            return factory;
         }
-        catch (IllegalAccessException e) {
-            // if the class or its nullary constructor is not accessible
-            e.printStackTrace();
+        ConstructorFactory<?> constructorFactory = ConstructorFactory
+                .of(className);
+        // 和Class.newInstance()一样，不调用非public的构造方法
+        Constructor<?> constructor = constructorFactory.getConstructor();
+        if (!Modifier.isPublic(constructor.getModifiers())
+                || !Modifier.isPublic(constructor.getDeclaringClass()
+                        .getModifiers())) {
+            throw new ReflectException(constructor + " is not public");
         }
+        return constructorFactory;
+    }
 
-        return instance;
+    /**
+     * 获取指定构造方法的工厂
+     *
+     * @param cls
+     * @param paramTypes
+     *            构造方法的参数类型，不传则使用无参构造方法
+     * @return
+     * @throws ReflectException
+     *             不能实例化，或者没有这个构造方法
+     */
+    public static <T> ConstructorFactory<T> getFactory(Class<T> cls,
+            Class<?>... paramTypes) {
+        return ConstructorFactory.of(cls, paramTypes);
+    }
 
+    /**
+     * 获取类的结构化描述（方法、字段、构造方法和修饰符），每个类只创建一次，各类成员在第一次使用时才加载
+     *
+     * @param className
+     * @return
+     * @throws ClassNotFoundException
+     */
+    public static ClassModel getClassModel(String className)
+            throws ClassNotFoundException {
+        return ClassModel.of(className);
+    }
+
+    /**
+     * 开启或关闭反射查找和调用的统计，关闭时几乎没有开销
+     *
+     * @param enabled
+     */
+    public static void setMetricsEnabled(boolean enabled) {
+        ReflectMetrics.setEnabled(enabled);
+    }
+
+    /**
+     * 获取总耗时（查找未命中缓存的时间加上调用时间）最多的类和成员
+     *
+     * @param topN
+     * @return 按耗时从高到低排列
+     */
+    public static List<ReflectMetrics.Snapshot> getSlowestMembers(int topN) {
+        return ReflectMetrics.getTop(topN);
+    }
+
+    /**
+     * 在后台线程池中并行加载并初始化类，之后{@link Class#forName(String)}和本类的方法不再有类加载的开销
+     *
+     * @param classNames
+     * @param warmFlags
+     *            {@link ClassPreloader}的WARM_常量，同时预先加载类的方法、字段或构造方法
+     * @param listener
+     *            每个类的加载耗时，可以为null
+     * @return 所有类处理完时完成，加载失败的类记录在对应的Result中
+     */
+    public static Future<List<ClassPreloader.Result>> preloadClasses(
+            List<String> classNames, int warmFlags,
+            ClassPreloader.Listener listener) {
+        return ClassPreloader.preload(classNames, warmFlags, listener);
     }
 
     /**
@@ -62,9 +156,8 @@ public class ReflectUtils {
         StringBuilder sBuilder = new StringBuilder();
 
         try {
-            Class<?> clazz = Class.forName(className);
-            Constructor<?>[] constructors = clazz.getConstructors();
-            sBuilder.append(getConstructorInfo(constructors));
+            ClassModelFormatter.appendConstructors(sBuilder,
+                    ClassModel.of(className).getConstructors());
         }
         catch (ClassNotFoundException e) {
             e.printStackTrace();
@@ -83,9 +176,8 @@ public class ReflectUtils {
         StringBuilder sBuilder = new StringBuilder();
 
         try {
-            Class<?> clazz = Class.forName(className);
-            Constructor<?>[] constructors = clazz.getDeclaredConstructors();
-            sBuilder.append(getConstructorInfo(constructors));
+            ClassModelFormatter.appendConstructors(sBuilder,
+                    ClassModel.of(className).getDeclaredConstructors());
         }
         catch (ClassNotFoundException e) {
             e.printStackTrace();
@@ -104,10 +196,8 @@ public class ReflectUtils {
         StringBuilder sBuilder = new StringBuilder();
 
         try {
-            Class<?> clazz = Class.forName(className);
-
-            Field[] fields = clazz.getFields();
-            sBuilder.append(getFieldInfo(fields));
+            ClassModelFormatter.appendFields(sBuilder,
+                    ClassModel.of(className).getFields());
         }
         catch (ClassNotFoundException e) {
             e.printStackTrace();
@@ -126,10 +216,8 @@ public class ReflectUtils {
         StringBuilder sBuilder = new StringBuilder();
 
         try {
-            Class<?> clazz = Class.forName(className);
-
-            Field[] fields = clazz.getDeclaredFields();
-            sBuilder.append(getFieldInfo(fields));
+            ClassModelFormatter.appendFields(sBuilder,
+                    ClassModel.of(className).getDeclaredFields());
         }
         catch (ClassNotFoundException e) {
             e.printStackTrace();
@@ -148,10 +236,9 @@ public class ReflectUtils {
         StringBuilder sBuilder = new StringBuilder();
 
         try {
-            Class<?> clazz = Class.forName(className);
-            Method[] methods = clazz.getMethods();// 得到所有的public方法，包括从基类继承的
-
-            sBuilder.append(getMethodInfo(methods));
+            // 得到所有的public方法，包括从基类继承的
+            ClassModelFormatter.appendMethods(sBuilder,
+                    ClassModel.of(className).getMethods());
 
         }
         catch (ClassNotFoundException e) {
@@ -171,11 +258,10 @@ public class ReflectUtils {
 
         StringBuilder sBuilder = new StringBuilder();
         try {
-            Class<?> clazz = Class.forName(className);
-            Method[] methods = clazz.getDeclaredMethods();// 得到本类声明的所有方法,包括私有方法
+            // 得到本类声明的所有方法,包括私有方法
             // clazz.getMethods(); 会返回所有public的方法，但是包括基类Object的方法
-
-            sBuilder.append(getMethodInfo(methods));
+            ClassModelFormatter.appendMethods(sBuilder,
+                    ClassModel.of(className).getDeclaredMethods());
 
         }
         catch (ClassNotFoundException e) {
@@ -188,131 +274,6 @@ public class ReflectUtils {
         return sBuilder.toString();
     }
 
-    /**
-     * 得到构造器信息
-     *
-     * @param constructor
-     * @return
-     */
-    private static String getConstructorInfo(Constructor<?> constructor) {
-
-        StringBuilder sBuilder = new StringBuilder();
-
-        sBuilder.append("name: " + constructor.getName());
-        sBuilder.append("\ngetParameterTypes: "
-                + Arrays.toString(constructor.getParameterTypes()));
-        return sBuilder.toString();
-    }
-
-    /**
-     * 将一组构造器的信息组成一个字符串返回
-     *
-     * @param constructors
-     * @return
-     */
-    private static String getConstructorInfo(Constructor<?>[] constructors) {
-
-        StringBuilder sBuilder = new StringBuilder();
-        int i = 0;
-        for (Constructor<?> c : constructors) {
-            sBuilder.append("method: " + ++i + " : ");
-            sBuilder.append("\n" + getConstructorInfo(c));
-            sBuilder.append("\n");
-        }
-
-        return sBuilder.toString();
-
-    }
-
-    /**
-     * 获取字段信息，组成一个字符串返回
-     *
-     * @param field
-     * @return
-     */
-    private static String getFieldInfo(Field field) {
-        StringBuilder sBuilder = new StringBuilder();
-        sBuilder.append("name: " + field.getName());
-        sBuilder.append("\ngetType: " + field.getType());
-        sBuilder.append(getModifiersInfo(field));
-        return sBuilder.toString();
-    }
-
-    /**
-     * 获取一组字段的信息，返回字符串
-     *
-     * @param fields
-     * @return
-     */
-    private static String getFieldInfo(Field[] fields) {
-        StringBuilder sBuilder = new StringBuilder();
-        int i = 0;
-        for (Field field : fields) {
-            sBuilder.append("field: " + ++i + " : ");
-            sBuilder.append("\n" + getFieldInfo(field));
-            sBuilder.append("\n");
-        }
-
-        return sBuilder.toString();
-    }
-
-    /**
-     * 获取方法的信息，组成一个字符串返回
-     *
-     * @param method
-     * @return
-     */
-    private static String getMethodInfo(Method method) {
-
-        StringBuilder sBuilder = new StringBuilder();
-
-        sBuilder.append("name: " + method.getName());
-        sBuilder.append("\ngetReturnType: " + method.getReturnType());
-        sBuilder.append("\ngetParameterTypes: "
-                + Arrays.toString(method.getParameterTypes()));
-        sBuilder.append(getModifiersInfo(method));
-        return sBuilder.toString();
-    }
-
-    /**
-     * 获取一组方法的信息，组成一个字符串返回
-     *
-     * @param methods
-     * @return
-     */
-    private static String getMethodInfo(Method[] methods) {
-        StringBuilder sBuilder = new StringBuilder();
-        int i = 0;
-        for (Method method : methods) {
-
-            sBuilder.append("method: " + ++i + " : ");
-            sBuilder.append("\n" + getMethodInfo(method));
-            sBuilder.append("\n");
-
-        }
-
-        return sBuilder.toString();
-    }
-
-    /**
-     * 获取修饰符信息
-     *
-     * @param member
-     * @return
-     */
-    private static String getModifiersInfo(Member member) {
-        StringBuilder sBuilder = new StringBuilder();
-        int modifiers = member.getModifiers();
-        sBuilder.append("\ngetModifiers: " + +modifiers + ", ");// 得到修饰符编码
-        sBuilder.append("\nisPublic: " + Modifier.isPublic(modifiers) + ", ");
-        sBuilder.append("\nisPrivate: " + Modifier.isPrivate(modifiers) + ", ");
-        sBuilder.append("\nisStatic: " + Modifier.isStatic(modifiers) + ", ");
-        sBuilder.append("\nisFinal: " + Modifier.isFinal(modifiers) + ", ");
-        sBuilder.append("\nisAbstract: " + Modifier.isAbstract(modifiers));
-
-        return sBuilder.toString();
-    }
-
     /**
      * 是否是公用静态方法
      *
@@ -327,7 +288,7 @@ public class ReflectUtils {
     }
 
     /**
-     * 调用静态方法
+     * 调用静态方法，标注了{@link com.mengdd.utils.reflect.Reflective}的类使用编译时生成的调用器
      *
      * @param className
      * @param methodName
@@ -335,22 +296,59 @@ public class ReflectUtils {
      * @param params
      * @return
      * @throws Exception
+     *             方法抛出的异常和反射调用一样包装在InvocationTargetException中，使用生成的调用器时也一样
      */
     public static Object invokePublicStaticMethod(String className,
             String methodName, Class<?>[] paramTypes, Object[] params)
             throws Exception {
 
-        Class<?> cls = Class.forName(className);
+        StaticInvoker invoker = ReflectRegistry.getStaticMethod(className,
+                methodName, paramTypes);
+        if (invoker != null) {
+            long start = ReflectMetrics.start();
+            try {
+                return invoker.invoke(params);
+            }
+            catch (Throwable e) {
+                // 和Method.invoke()一样，包括RuntimeException和Error
+                throw new InvocationTargetException(e);
+            }
+            finally {
+                ReflectMetrics.recordInvocation(className, methodName,
+                        paramTypes, start);
+            }
+        }
+
+        Class<?> cls = ReflectCache.forName(className);
 
-        Method method = cls.getMethod(methodName, paramTypes);
+        Method method = ReflectCache.getMethod(cls, methodName, paramTypes);
         Object value = null;
         if (isPublicStatic(method)) {
-            value = method.invoke(null, params);
+            long start = ReflectMetrics.start();
+            try {
+                value = method.invoke(null, params);
+            }
+            finally {
+                ReflectMetrics.recordInvocation(method, start);
+            }
         }
 
         return value;
     }
 
+    /**
+     * 获取类的公用静态方法分派表，按方法名和参数个数查找预先创建的调用器，适合按名字分派命令。
+     * 每个类只创建一次，之后的调用不再查找方法
+     *
+     * @param className
+     * @return
+     * @throws ClassNotFoundException
+     */
+    public static StaticDispatchTable getDispatchTable(String className)
+            throws ClassNotFoundException {
+        return StaticDispatchTable.of(className);
+    }
+
     /**
      * 调用私有方法
      *
@@ -372,11 +370,87 @@ public class ReflectUtils {
         Class<?> cls = obj.getClass();
 
         // 注意不要用getMethod(),因为getMethod()返回的都是public方法
-        Method method = cls.getDeclaredMethod(methodName, paramTypes);
+        Method method = ReflectCache.getDeclaredMethod(cls, methodName,
+                paramTypes);// 缓存中的Method已经setAccessible(true),抑制Java的访问控制检查
 
-        method.setAccessible(true);// 抑制Java的访问控制检查
-
-        value = method.invoke(obj, params);
+        long start = ReflectMetrics.start();
+        try {
+            value = method.invoke(obj, params);
+        }
+        finally {
+            ReflectMetrics.recordInvocation(method, start);
+        }
         return value;
     }
+
+    /**
+     * 获取可重复使用的方法调用器，方法只查找一次，之后的调用不再查找和做访问检查
+     *
+     * @param cls
+     *            方法所在的类
+     * @param methodName
+     *            方法名，先查找本类声明的方法（包括私有方法），再查找继承的public方法
+     * @param paramTypes
+     *            参数类型
+     * @return
+     * @throws NoSuchMethodException
+     */
+    public static MethodInvoker getMethodInvoker(Class<?> cls,
+            String methodName, Class<?>... paramTypes)
+            throws NoSuchMethodException {
+        Method method;
+        try {
+            method = ReflectCache.getDeclaredMethod(cls, methodName, paramTypes);
+        }
+        catch (NoSuchMethodException e) {
+            method = ReflectCache.getMethod(cls, methodName, paramTypes);
+        }
+        return MethodInvoker.of(method);
+    }
+
+    /**
+     * 获取公用静态方法的调用器
+     *
+     * @param className
+     * @param methodName
+     * @param paramTypes
+     * @return
+     * @throws ClassNotFoundException
+     * @throws NoSuchMethodException
+     *             如果方法不存在或者不是public static的
+     */
+    public static MethodInvoker getStaticMethodInvoker(String className,
+            String methodName, Class<?>... paramTypes)
+            throws ClassNotFoundException, NoSuchMethodException {
+        Class<?> cls = ReflectCache.forName(className);
+        Method method = ReflectCache.getMethod(cls, methodName, paramTypes);
+        if (!isPublicStatic(method)) {
+            throw new NoSuchMethodException(method + " is not public static");
+        }
+        return MethodInvoker.of(method);
+    }
+
+    /**
+     * 获取字段的读写器，可以不装箱地读写基本类型的字段
+     *
+     * @param cls
+     * @param fieldName
+     *            本类或基类中声明的字段，包括私有字段
+     * @return
+     * @throws NoSuchFieldException
+     */
+    public static FieldAccessor getFieldAccessor(Class<?> cls,
+            String fieldName) throws NoSuchFieldException {
+        return FieldAccessor.of(cls, fieldName);
+    }
+
+    /**
+     * 将from中的字段值复制到to中名称和类型都相同的字段，字段的对应关系每对类只计算一次
+     *
+     * @param from
+     * @param to
+     */
+    public static void copyFields(Object from, Object to) {
+        FieldCopier.of(from.getClass(), to.getClass()).copy(from, to);
+    }
 }
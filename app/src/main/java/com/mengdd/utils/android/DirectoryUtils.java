@@ -7,20 +7,33 @@ public class DirectoryUtils {
 
     private static final String LOG_TAG = "DirectoryUtils";
 
+    // the directories come from the StorageLocations snapshot, call
+    // StorageLocations.init(context) at startup to resolve them in the
+    // background
+
     public static void getEnvironmentDirectories() {
+        // may wait for the directories to be resolved
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("getEnvironmentDirectories");
+        StorageLocations locations;
+        try {
+            locations = StorageLocations.get();
+        }
+        finally {
+            ThreadPolicy.end(violation);
+        }
         LogUtils.i(LOG_TAG, "getRootDirectory(): "
-                + Environment.getRootDirectory().toString());
+                + locations.getRootDirectory().toString());
         LogUtils.i(LOG_TAG, "getDataDirectory(): "
-                + Environment.getDataDirectory().toString());
+                + locations.getDataDirectory().toString());
         LogUtils.i(LOG_TAG, "getDownloadCacheDirectory(): "
-                + Environment.getDownloadCacheDirectory().toString());
+                + locations.getDownloadCacheDirectory().toString());
         LogUtils.i(LOG_TAG, "getExternalStorageDirectory(): "
-                + Environment.getExternalStorageDirectory().toString());
+                + locations.getExternalStorageDirectory().toString());
 
         LogUtils.i(
                 LOG_TAG,
                 "getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES): "
-                        + Environment.getExternalStoragePublicDirectory(
+                        + locations.getExternalStoragePublicDirectory(
                                 Environment.DIRECTORY_PICTURES).toString());
 
 //        LogUtils.i(
@@ -36,22 +49,54 @@ public class DirectoryUtils {
     }
 
     public static void getApplicationDirectories(Context context) {
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("getApplicationDirectories");
+        StorageLocations locations;
+        try {
+            locations = StorageLocations.get(context);
+        }
+        finally {
+            ThreadPolicy.end(violation);
+        }
 
         LogUtils.i(LOG_TAG, "context.getFilesDir(): "
-                + context.getFilesDir().toString());
+                + locations.getFilesDir().toString());
         LogUtils.i(LOG_TAG, "context.getCacheDir(): "
-                + context.getCacheDir().toString());
+                + locations.getCacheDir().toString());
 
         // methods below will return null if the permissions denied
         LogUtils.i(
                 LOG_TAG,
                 "context.getExternalFilesDir(Environment.DIRECTORY_MOVIES): "
-                        + context
+                        + locations
                                 .getExternalFilesDir(Environment.DIRECTORY_MOVIES));
 
         LogUtils.i(
                 LOG_TAG,
                 "context.getExternalCacheDir(): "
-                        + context.getExternalCacheDir());
+                        + locations.getExternalCacheDir());
+    }
+
+    /**
+     * Log the last sampled space of the application directories, see
+     * {@link StorageMonitor#start(Context)}. Check the space before a large
+     * write with {@link StorageMonitor#hasHeadroom(java.io.File, long)}.
+     */
+    public static void getStorageSpace() {
+        for (StorageMonitor.Volume volume : StorageMonitor.getVolumes()) {
+            LogUtils.i(LOG_TAG, volume.getDirectory() + ": usable "
+                    + volume.getUsableBytes() + " of "
+                    + volume.getTotalBytes());
+        }
+    }
+
+    /**
+     * Log the bytes used by the application directories, counted by
+     * {@link StorageUsage#start(Context)} instead of walking them.
+     */
+    public static void getStorageUsage() {
+        for (StorageUsage.Usage usage : StorageUsage.getUsages()) {
+            LogUtils.i(LOG_TAG, usage.getDirectory() + ": used "
+                    + usage.getUsedBytes());
+        }
     }
 }
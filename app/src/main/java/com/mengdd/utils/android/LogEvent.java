@@ -0,0 +1,348 @@
+package com.mengdd.utils.android;
+
+import com.mengdd.utils.log.BinaryLogFormat;
+
+/**
+ * Structured log event with key-value fields, obtained from
+ * {@link LogUtils#event(String)}:
+ *
+ * <pre>
+ * LogUtils.event(LOG_TAG).msg("download done").kv("bytes", n).kv("ms", t).log();
+ * </pre>
+ *
+ * When the event is disabled (DEBUG off, or dropped by a rate limit) a shared
+ * no-op instance is returned, so the fields are neither stored nor
+ * formatted. Values that are expensive to compute can be passed as a
+ * {@link Value}, which is only evaluated when the event is written.
+ * <p>
+ * Events are pooled per thread: an event must not be used after
+ * {@link #log()}, and must not be handed to another thread. An event that
+ * is never logged is not returned to the pool, the next one obtained on the
+ * thread takes its place.
+ * <p>
+ * In the text format, values containing a space, '"', '=' or a control
+ * character are quoted and escaped like JSON strings.
+ */
+public class LogEvent {
+
+    /** "msg key=value key="quoted value"" */
+    public static final int FORMAT_TEXT = 0;
+    /** one JSON object per line */
+    public static final int FORMAT_JSON = 1;
+
+    /**
+     * Lazily computed field value.
+     */
+    public interface Value {
+        Object get();
+    }
+
+    private static final int TYPE_LONG = 0;
+    private static final int TYPE_DOUBLE = 1;
+    private static final int TYPE_BOOLEAN = 2;
+    private static final int TYPE_OBJECT = 3;
+    private static final int TYPE_LAZY = 4;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    static final LogEvent DISABLED = new LogEvent(false);
+
+    private static final ThreadLocal<LogEvent> POOL = new ThreadLocal<LogEvent>() {
+        @Override
+        protected LogEvent initialValue() {
+            return new LogEvent(true);
+        }
+    };
+
+    private final boolean mEnabled;
+    private boolean mInUse;
+
+    private int mPriority;
+    private String mTag;
+    private String mMsg;
+
+    private int mSize;
+    private String[] mKeys = new String[INITIAL_CAPACITY];
+    private int[] mTypes = new int[INITIAL_CAPACITY];
+    private long[] mLongs = new long[INITIAL_CAPACITY];
+    private double[] mDoubles = new double[INITIAL_CAPACITY];
+    private Object[] mObjects = new Object[INITIAL_CAPACITY];
+
+    private final StringBuilder mBuilder;
+
+    private LogEvent(boolean enabled) {
+        mEnabled = enabled;
+        mBuilder = enabled ? new StringBuilder(128) : null;
+    }
+
+    static LogEvent obtain(int priority, String tag) {
+        LogEvent event = POOL.get();
+        if (event.mInUse) {
+            // nested in an event of this thread, or that one was never
+            // logged; it keeps working unpooled and the new one is pooled,
+            // so an abandoned event costs one allocation, not one per event
+            event = new LogEvent(true);
+            POOL.set(event);
+        }
+        event.mInUse = true;
+        event.mPriority = priority;
+        event.mTag = tag;
+        return event;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public LogEvent msg(String msg) {
+        if (mEnabled) {
+            mMsg = msg;
+        }
+        return this;
+    }
+
+    public LogEvent kv(String key, long value) {
+        if (mEnabled) {
+            int i = add(key, TYPE_LONG);
+            mLongs[i] = value;
+        }
+        return this;
+    }
+
+    public LogEvent kv(String key, double value) {
+        if (mEnabled) {
+            int i = add(key, TYPE_DOUBLE);
+            mDoubles[i] = value;
+        }
+        return this;
+    }
+
+    public LogEvent kv(String key, boolean value) {
+        if (mEnabled) {
+            int i = add(key, TYPE_BOOLEAN);
+            mLongs[i] = value ? 1 : 0;
+        }
+        return this;
+    }
+
+    public LogEvent kv(String key, Object value) {
+        if (mEnabled) {
+            int i = add(key, TYPE_OBJECT);
+            mObjects[i] = value;
+        }
+        return this;
+    }
+
+    public LogEvent kv(String key, Value value) {
+        if (mEnabled) {
+            int i = add(key, value == null ? TYPE_OBJECT : TYPE_LAZY);
+            mObjects[i] = value;
+        }
+        return this;
+    }
+
+    /**
+     * Format and write the event, then return it to the pool.
+     */
+    public void log() {
+        if (!mEnabled) {
+            return;
+        }
+        try {
+            String line = LogUtils.getEventFormat() == FORMAT_JSON ? formatJson()
+                    : formatText();
+            LogUtils.write(mPriority, mTag, line);
+        }
+        finally {
+            recycle();
+        }
+    }
+
+    private String formatText() {
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        if (mMsg != null) {
+            builder.append(mMsg);
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(mKeys[i]).append('=');
+            switch (mTypes[i]) {
+            case TYPE_LONG:
+                builder.append(mLongs[i]);
+                break;
+            case TYPE_DOUBLE:
+                builder.append(mDoubles[i]);
+                break;
+            case TYPE_BOOLEAN:
+                builder.append(mLongs[i] != 0);
+                break;
+            default:
+                appendTextValue(builder, String.valueOf(getObject(i)));
+                break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private String formatJson() {
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        builder.append("{\"ts\":").append(System.currentTimeMillis());
+        builder.append(",\"level\":\"")
+                .append(BinaryLogFormat.priorityLetter(mPriority)).append('"');
+        builder.append(",\"tag\":");
+        appendJsonString(builder, mTag);
+        if (mMsg != null) {
+            builder.append(",\"msg\":");
+            appendJsonString(builder, mMsg);
+        }
+        for (int i = 0; i < mSize; i++) {
+            builder.append(',');
+            appendJsonString(builder, mKeys[i]);
+            builder.append(':');
+            switch (mTypes[i]) {
+            case TYPE_LONG:
+                builder.append(mLongs[i]);
+                break;
+            case TYPE_DOUBLE:
+                double d = mDoubles[i];
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    builder.append("null");
+                }
+                else {
+                    builder.append(d);
+                }
+                break;
+            case TYPE_BOOLEAN:
+                builder.append(mLongs[i] != 0);
+                break;
+            default:
+                Object value = getObject(i);
+                if (value == null || isNaNOrInfinite(value)) {
+                    // not valid JSON numbers, as for TYPE_DOUBLE
+                    builder.append("null");
+                }
+                else if (value instanceof Number || value instanceof Boolean) {
+                    builder.append(value);
+                }
+                else {
+                    appendJsonString(builder, value.toString());
+                }
+                break;
+            }
+        }
+        builder.append('}');
+        return builder.toString();
+    }
+
+    private static boolean isNaNOrInfinite(Object value) {
+        if (value instanceof Double) {
+            double d = (Double) value;
+            return Double.isNaN(d) || Double.isInfinite(d);
+        }
+        if (value instanceof Float) {
+            float f = (Float) value;
+            return Float.isNaN(f) || Float.isInfinite(f);
+        }
+        return false;
+    }
+
+    private Object getObject(int i) {
+        Object value = mObjects[i];
+        if (mTypes[i] == TYPE_LAZY) {
+            value = ((Value) value).get();
+        }
+        return value;
+    }
+
+    /**
+     * Quoted and escaped as in JSON if the value would otherwise not read
+     * back as one value.
+     */
+    private static void appendTextValue(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            // space and control characters, including line breaks
+            if (c <= ' ' || c == '"' || c == '=') {
+                appendJsonString(builder, value);
+                return;
+            }
+        }
+        builder.append(value);
+    }
+
+    private static void appendJsonString(StringBuilder builder, String value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                builder.append("\\\"");
+                break;
+            case '\\':
+                builder.append("\\\\");
+                break;
+            case '\n':
+                builder.append("\\n");
+                break;
+            case '\r':
+                builder.append("\\r");
+                break;
+            case '\t':
+                builder.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                }
+                else {
+                    builder.append(c);
+                }
+                break;
+            }
+        }
+        builder.append('"');
+    }
+
+    private int add(String key, int type) {
+        if (mSize == mKeys.length) {
+            int capacity = mSize * 2;
+            String[] keys = new String[capacity];
+            int[] types = new int[capacity];
+            long[] longs = new long[capacity];
+            double[] doubles = new double[capacity];
+            Object[] objects = new Object[capacity];
+            System.arraycopy(mKeys, 0, keys, 0, mSize);
+            System.arraycopy(mTypes, 0, types, 0, mSize);
+            System.arraycopy(mLongs, 0, longs, 0, mSize);
+            System.arraycopy(mDoubles, 0, doubles, 0, mSize);
+            System.arraycopy(mObjects, 0, objects, 0, mSize);
+            mKeys = keys;
+            mTypes = types;
+            mLongs = longs;
+            mDoubles = doubles;
+            mObjects = objects;
+        }
+        mKeys[mSize] = key;
+        mTypes[mSize] = type;
+        return mSize++;
+    }
+
+    private void recycle() {
+        for (int i = 0; i < mSize; i++) {
+            mKeys[i] = null;
+            mObjects[i] = null;
+        }
+        mSize = 0;
+        mMsg = null;
+        mTag = null;
+        mInUse = false;
+    }
+}
@@ -1,21 +1,121 @@
 package com.mengdd.utils.android;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import com.mengdd.utils.FileUtils;
+import com.mengdd.utils.log.BinaryFileLogSink;
+import com.mengdd.utils.log.BinaryLogFormat;
+import com.mengdd.utils.log.FileLogSink;
+import com.mengdd.utils.log.FlightRecorder;
+import com.mengdd.utils.log.LogRateLimiter;
+import com.mengdd.utils.log.LogSink;
+import com.mengdd.utils.log.StreamLogSink;
 import android.os.Environment;
-import android.text.TextUtils;
 import android.util.Log;
 
+/**
+ * Logging facade. Events are written to a {@link LogSink}, chosen at startup
+ * with {@link #setSink(LogSink)} or resolved on first use: a file sink if
+ * LOG_TO_FILE is set, {@link LogcatSink} on Android and a
+ * {@link StreamLogSink} on stdout on a plain JVM. Static initialization does
+ * not touch any Android API, so the class can be used in JVM tests and
+ * benchmarks.
+ */
 public class LogUtils {
 
     private static boolean DEBUG = true;
     private static String LOG_TAG = "mengdd";
 
     private final static boolean LOG_TO_FILE = false;
-    private final static String LOG_FILE_PATH = Environment
-            .getExternalStorageDirectory().getPath() + "/mengdd_debug_log.txt";
+    // file names below the external storage directory
+    private final static String LOG_FILE_NAME = "mengdd_debug_log.txt";
 
-    private static File LOG_FILE;
+    // write the compact binary format instead of text, decode the file with
+    // com.mengdd.utils.log.BinaryLogDecoder
+    private final static boolean LOG_BINARY = false;
+    private final static String LOG_BINARY_FILE_NAME = "mengdd_debug_log.bin";
+
+    private final static String FLIGHT_RECORD_FILE_NAME =
+            "mengdd_flight_record.txt";
+
+    private static volatile LogSink SINK;
+    private static volatile File FLIGHT_RECORD_FILE;
+
+    private static final LogRateLimiter RATE_LIMITER = new LogRateLimiter();
+
+    private static volatile int EVENT_FORMAT = LogEvent.FORMAT_TEXT;
+
+    /**
+     * Use the given sink for all following events. Call it once at startup,
+     * before the first event; the previous sink is flushed but not closed.
+     */
+    public static void setSink(LogSink sink) {
+        if (sink == null) {
+            throw new NullPointerException("sink must not be null");
+        }
+        LogSink previous;
+        synchronized (LogUtils.class) {
+            previous = SINK;
+            SINK = sink;
+        }
+        if (previous != null) {
+            previous.flush();
+        }
+    }
+
+    public static LogSink getSink() {
+        LogSink sink = SINK;
+        if (sink == null) {
+            sink = resolveDefaultSink();
+        }
+        return sink;
+    }
+
+    public static void flush() {
+        LogSink sink = SINK;
+        if (sink != null) {
+            sink.flush();
+        }
+    }
+
+    private static synchronized LogSink resolveDefaultSink() {
+        if (SINK == null) {
+            if (LOG_TO_FILE) {
+                if (LOG_BINARY) {
+                    SINK = new BinaryFileLogSink(
+                            getExternalStorageFile(LOG_BINARY_FILE_NAME), true);
+                } else {
+                    SINK = new FileLogSink(
+                            getExternalStorageFile(LOG_FILE_NAME), true);
+                }
+            } else if (isAndroid()) {
+                SINK = new LogcatSink();
+            } else {
+                SINK = new StreamLogSink(System.out);
+            }
+        }
+        return SINK;
+    }
+
+    private static boolean isAndroid() {
+        // ART reports the same VM name as Dalvik
+        return "Dalvik".equals(System.getProperty("java.vm.name"));
+    }
+
+    private static File getExternalStorageFile(String name) {
+        // the cached snapshot if StorageLocations was initialized
+        StorageLocations locations = StorageLocations.peek();
+        File dir = locations != null ? locations.getExternalStorageDirectory()
+                : Environment.getExternalStorageDirectory();
+        return new File(dir, name);
+    }
 
     public static void footPrint() {
         if (DEBUG) {
@@ -40,89 +140,123 @@ public class LogUtils {
         }
     }
 
+    /**
+     * Same output as {@link Log#getStackTraceString(Throwable)}, without
+     * depending on Android.
+     */
     public static String getStackTraceString(Throwable tr) {
-        return Log.getStackTraceString(tr);
+        if (tr == null) {
+            return "";
+        }
+        // like Log, hide UnknownHostException to save log spam when offline
+        Throwable t = tr;
+        while (t != null) {
+            if (t instanceof UnknownHostException) {
+                return "";
+            }
+            t = t.getCause();
+        }
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        tr.printStackTrace(pw);
+        pw.flush();
+        return sw.toString();
     }
 
     public static void v(String tag, String msg) {
         if (DEBUG) {
             println(Log.VERBOSE, tag, msg);
+        } else {
+            FlightRecorder.record(Log.VERBOSE, tag, msg);
         }
     }
 
     public static void v(String tag, String msg, Throwable tr) {
         if (DEBUG) {
             println(Log.VERBOSE, tag, msg + '\n' + getStackTraceString(tr));
+        } else {
+            FlightRecorder.record(Log.VERBOSE, tag, msg);
         }
     }
 
     public static void d(String msg) {
         if (DEBUG) {
-            String className = Thread.currentThread().getStackTrace()[3]
-                    .getClassName();
+            StackTraceElement caller = Thread.currentThread().getStackTrace()[3];
+            String className = caller.getClassName();
             int index = className.lastIndexOf(".");
             if (index > -1) {
                 className = className.substring(index + 1);
             }
 
-            String msgToPrint = Thread.currentThread().getId() + " "
-                    + className + "."
-                    + Thread.currentThread().getStackTrace()[3].getMethodName();
-            if (!TextUtils.isEmpty(msg)) {
+            String site = className + "." + caller.getMethodName();
+            String msgToPrint = Thread.currentThread().getId() + " " + site;
+            if (!isEmpty(msg)) {
                 msgToPrint += "--" + msg;
             }
-            println(Log.DEBUG, LOG_TAG, msgToPrint);
+            println(Log.DEBUG, LOG_TAG, site, msgToPrint);
+        } else {
+            FlightRecorder.record(Log.DEBUG, LOG_TAG, msg);
         }
     }
 
     public static void d(String tag, String msg) {
         if (DEBUG) {
-            String msgToPrint = Thread.currentThread().getStackTrace()[3]
+            String site = Thread.currentThread().getStackTrace()[3]
                     .getMethodName();
-            if (!TextUtils.isEmpty(msg)) {
+            String msgToPrint = site;
+            if (!isEmpty(msg)) {
                 msgToPrint += "--" + msg;
             }
-            println(Log.DEBUG, tag, msgToPrint);
+            println(Log.DEBUG, tag, site, msgToPrint);
+        } else {
+            FlightRecorder.record(Log.DEBUG, tag, msg);
         }
     }
 
     public static void d(String tag, String msg, Throwable tr) {
         if (DEBUG) {
             println(Log.DEBUG, tag, msg + '\n' + getStackTraceString(tr));
+        } else {
+            FlightRecorder.record(Log.DEBUG, tag, msg);
         }
     }
 
     public static void i(String msg) {
         if (DEBUG) {
-            String className = Thread.currentThread().getStackTrace()[3]
-                    .getClassName();
+            StackTraceElement caller = Thread.currentThread().getStackTrace()[3];
+            String className = caller.getClassName();
             int index = className.lastIndexOf(".");
             if (index > -1) {
                 className = className.substring(index + 1);
             }
 
-            String msgToPrint = Thread.currentThread().getId() + " "
-                    + className + "."
-                    + Thread.currentThread().getStackTrace()[3].getMethodName();
-            if (!TextUtils.isEmpty(msg)) {
+            String site = className + "." + caller.getMethodName();
+            String msgToPrint = Thread.currentThread().getId() + " " + site;
+            if (!isEmpty(msg)) {
                 msgToPrint += "--" + msg;
             }
-            println(Log.INFO, LOG_TAG, msgToPrint);
+            println(Log.INFO, LOG_TAG, site, msgToPrint);
+        } else {
+            FlightRecorder.record(Log.INFO, LOG_TAG, msg);
         }
     }
 
     public static void i(String tag, String msg) {
         if (DEBUG) {
-            String msgToPrint = Thread.currentThread().getStackTrace()[3]
+            String site = Thread.currentThread().getStackTrace()[3]
                     .getMethodName();
-            msgToPrint += "--" + msg;
-            println(Log.INFO, tag, msgToPrint);
+            String msgToPrint = site + "--" + msg;
+            println(Log.INFO, tag, site, msgToPrint);
+        } else {
+            FlightRecorder.record(Log.INFO, tag, msg);
         }
     }
 
     public static void i(String tag, String msg, Throwable tr) {
         if (DEBUG) {
             println(Log.INFO, tag, msg + '\n' + getStackTraceString(tr));
+        } else {
+            FlightRecorder.record(Log.INFO, tag, msg);
         }
     }
 
@@ -151,50 +285,218 @@ public class LogUtils {
     }
 
     public static int wtf(String tag, String msg) {
-        return Log.wtf(tag, msg, null);
+        return wtf(tag, msg, null);
     }
 
     public static int wtf(String tag, Throwable tr) {
-        return Log.wtf(tag, tr.getMessage(), tr);
+        return wtf(tag, tr.getMessage(), tr);
     }
 
     public static int wtf(String tag, String msg, Throwable tr) {
-        return Log.wtf(tag, msg, tr);
+        FlightRecorder.record(Log.ASSERT, tag, tr == null ? msg : msg + '\n'
+                + getStackTraceString(tr));
+        dumpFlightRecord();
+        return getSink().write(Log.ASSERT, tag, tr == null ? msg : msg + '\n'
+                + getStackTraceString(tr));
+    }
+
+    /**
+     * Dump the flight record to the given file instead of
+     * FLIGHT_RECORD_FILE_NAME on the external storage.
+     */
+    public static void setFlightRecordFile(File file) {
+        FLIGHT_RECORD_FILE = file;
+    }
+
+    /**
+     * Write the events held by the {@link FlightRecorder} to the flight record
+     * file, replacing the previous dump.
+     *
+     * @return the dump file, or null if it could not be written
+     */
+    public static File dumpFlightRecord() {
+        Writer writer = null;
+        File file = null;
+        try {
+            file = FLIGHT_RECORD_FILE;
+            if (file == null) {
+                file = getExternalStorageFile(FLIGHT_RECORD_FILE_NAME);
+            }
+            writer = new OutputStreamWriter(FileUtils.openOutputStream(file),
+                    "UTF-8");
+            FlightRecorder.dump(writer);
+            return file;
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+        finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                }
+                catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Dump the flight record when a thread dies of an uncaught exception. The
+     * previously installed handler is still called afterwards.
+     */
+    public static void installCrashHandler() {
+        final Thread.UncaughtExceptionHandler previous = Thread
+                .getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+
+            @Override
+            public void uncaughtException(Thread thread, Throwable ex) {
+                FlightRecorder.record(Log.ASSERT, LOG_TAG, "Uncaught exception in "
+                        + thread.getName() + '\n' + getStackTraceString(ex));
+                dumpFlightRecord();
+                if (previous != null) {
+                    previous.uncaughtException(thread, ex);
+                }
+            }
+        });
     }
 
     public static int println(int priority, String tag, String msg) {
-        if (TextUtils.isEmpty(msg)) {
+        return println(priority, tag, null, msg);
+    }
+
+    private static int println(int priority, String tag, String site,
+            String msg) {
+        if (!acquire(tag, site)) {
+            return 0;
+        }
+        return write(priority, tag, msg);
+    }
+
+    static int write(int priority, String tag, String msg) {
+        if (isEmpty(msg)) {
             msg = "";
         }
-        if (LOG_TO_FILE) {
-            logToFile(tag, msg);
+        FlightRecorder.record(priority, tag, msg);
+        return getSink().write(priority, tag, msg);
+    }
+
+    /**
+     * Log a message template, each "{}" is replaced by the next argument. In
+     * binary mode the template is written once and only the arguments are
+     * written per event, so prefer it over string concatenation for
+     * frequent messages.
+     */
+    public static int printf(int priority, String tag, String template,
+            Object... args) {
+        if (template == null) {
+            template = "";
+        }
+        if (!acquire(tag, null)) {
             return 0;
-        } else {
-            return Log.println(priority, tag, msg);
         }
+        if (FlightRecorder.isEnabled()) {
+            FlightRecorder.record(priority, tag,
+                    BinaryLogFormat.formatMessage(template, args));
+        }
+        // the sink formats the message unless it stores templates
+        return getSink().writeTemplate(priority, tag, template, args);
     }
 
-    private static synchronized void logToFile(String tag, String msg) {
-        try {
-            if (LOG_FILE == null) {
-                LOG_FILE = new File(LOG_FILE_PATH);
-                if (LOG_FILE.exists()) {
-                    LOG_FILE.delete();
-                }
-                LOG_FILE.createNewFile();
-            }
+    /**
+     * Start a structured {@link Log#INFO} event, see {@link LogEvent}.
+     */
+    public static LogEvent event(String tag) {
+        return event(Log.INFO, tag);
+    }
+
+    /**
+     * Start a structured event. Returns a no-op event if the priority is
+     * disabled or the tag is rate limited, so field values are never
+     * evaluated on disabled paths.
+     */
+    public static LogEvent event(int priority, String tag) {
+        if ((!DEBUG && priority < Log.WARN) || !acquire(tag, null)) {
+            return LogEvent.DISABLED;
+        }
+        return LogEvent.obtain(priority, tag);
+    }
+
+    /**
+     * @param format
+     *            {@link LogEvent#FORMAT_TEXT} or {@link LogEvent#FORMAT_JSON}
+     */
+    public static void setEventFormat(int format) {
+        EVENT_FORMAT = format;
+    }
+
+    public static int getEventFormat() {
+        return EVENT_FORMAT;
+    }
+
+    public static LogRateLimiter getRateLimiter() {
+        return RATE_LIMITER;
+    }
+
+    /**
+     * Limit a tag to permitsPerSecond events on average, with bursts of up to
+     * burst events. Use {@link LogRateLimiter#siteKey(String, String)} as tag
+     * to limit a single calling method.
+     */
+    public static void setRateLimit(String tag, double permitsPerSecond,
+            int burst) {
+        RATE_LIMITER.setRateLimit(tag, permitsPerSecond, burst);
+    }
 
-            FileOutputStream outputStream = new FileOutputStream(LOG_FILE, true);
+    /**
+     * Log only 1 in n events of a tag.
+     */
+    public static void setSampling(String tag, int n) {
+        RATE_LIMITER.setSampling(tag, n);
+    }
 
-            StringBuilder builder = new StringBuilder();
-            builder.append(tag).append("  :  ").append(msg).append("\n");
+    public static void clearRateLimit(String tag) {
+        RATE_LIMITER.remove(tag);
+    }
 
-            outputStream.write(builder.toString().getBytes());
-            outputStream.flush();
-            outputStream.close();
+    /**
+     * Log how many events were suppressed by each rate limit since its last
+     * report. Reports are otherwise only written with the next event allowed
+     * by the same rule, at most once per
+     * {@link LogRateLimiter#REPORT_INTERVAL_MS}.
+     */
+    public static void reportSuppressed() {
+        Map<String, Long> suppressed = new HashMap<String, Long>();
+        RATE_LIMITER.drainSuppressed(suppressed);
+        for (Map.Entry<String, Long> entry : suppressed.entrySet()) {
+            write(Log.INFO, LOG_TAG,
+                    getSuppressedMessage(entry.getKey(), entry.getValue()));
         }
-        catch (Exception e) {
-            e.printStackTrace();
+    }
+
+    private static boolean acquire(String tag, String site) {
+        LogRateLimiter.Rule rule = RATE_LIMITER.ruleFor(tag, site);
+        if (rule == null) {
+            return true;
         }
+        if (!rule.tryAcquire()) {
+            return false;
+        }
+        long suppressed = rule.takeSuppressedIfDue(System.currentTimeMillis());
+        if (suppressed > 0) {
+            write(Log.INFO, tag, getSuppressedMessage(rule.key, suppressed));
+        }
+        return true;
+    }
+
+    private static String getSuppressedMessage(String key, long count) {
+        return String.format(Locale.US, "suppressed %,d messages from %s",
+                count, key);
+    }
+
+    private static boolean isEmpty(String str) {
+        return str == null || str.length() == 0;
     }
 }
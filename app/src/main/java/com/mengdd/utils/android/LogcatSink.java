@@ -0,0 +1,34 @@
+package com.mengdd.utils.android;
+
+import com.mengdd.utils.log.BinaryLogFormat;
+import com.mengdd.utils.log.LogSink;
+import android.util.Log;
+
+/**
+ * Writes events to logcat through {@link Log}, the default sink on Android.
+ */
+public class LogcatSink implements LogSink {
+
+    @Override
+    public int write(int priority, String tag, String msg) {
+        if (priority == Log.ASSERT) {
+            return Log.wtf(tag, msg, null);
+        }
+        return Log.println(priority, tag, msg);
+    }
+
+    @Override
+    public int writeTemplate(int priority, String tag, String template,
+            Object[] args) {
+        return write(priority, tag,
+                BinaryLogFormat.formatMessage(template, args));
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
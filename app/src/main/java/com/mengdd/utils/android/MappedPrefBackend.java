@@ -0,0 +1,114 @@
+package com.mengdd.utils.android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import android.content.Context;
+
+import com.mengdd.utils.kv.MappedKeyValueStore;
+
+/**
+ * {@link PrefBackend} of a {@link MappedKeyValueStore} file, for many keys or
+ * frequent writes: a write appends one record instead of rewriting the whole
+ * file, and opening the file does not parse XML.
+ * <p>
+ * The files are kept in {@link #DIRECTORY} of the app's files directory, or
+ * in any directory given to {@link #open(File, String)}, which needs no
+ * Context.
+ */
+public class MappedPrefBackend implements PrefBackend {
+
+    public static final String DIRECTORY = "prefs";
+    public static final String EXTENSION = ".kv";
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public PrefBackend open(Context context, String name)
+                throws IOException {
+            return MappedPrefBackend.open(new File(context.getFilesDir(),
+                    DIRECTORY), name);
+        }
+    };
+
+    private final MappedKeyValueStore mStore;
+
+    public MappedPrefBackend(MappedKeyValueStore store) {
+        mStore = store;
+    }
+
+    /**
+     * @param dir
+     *            created if needed
+     * @param name
+     *            the file is name + {@link #EXTENSION}
+     * @throws IOException
+     */
+    public static MappedPrefBackend open(File dir, String name)
+            throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return new MappedPrefBackend(MappedKeyValueStore.open(new File(dir,
+                name + EXTENSION)));
+    }
+
+    public MappedKeyValueStore getStore() {
+        return mStore;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mStore.contains(key);
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return mStore.getAll();
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return mStore.getString(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return mStore.getBoolean(key, defValue);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return mStore.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return mStore.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return mStore.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean write(Map<String, ?> writes) {
+        try {
+            mStore.write(writes);
+            return true;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * The file is only written through this backend, there are no outside
+     * changes to report.
+     */
+    @Override
+    public void setChangeListener(ChangeListener listener) {
+    }
+}
@@ -0,0 +1,68 @@
+package com.mengdd.utils.android;
+
+import java.io.IOException;
+import java.util.Map;
+
+import android.content.Context;
+
+/**
+ * Storage of one preferences file behind a {@link PrefStore}.
+ * <p>
+ * {@link SharedPreferencesBackend} is the default;
+ * {@link MappedPrefBackend} keeps the values in an append-only memory mapped
+ * file instead and needs no Context, so it also runs on a plain JVM.
+ */
+public interface PrefBackend {
+
+    /**
+     * Opens the backend of a preferences file, see
+     * {@link PrefStore#setBackendFactory(Factory)}.
+     */
+    interface Factory {
+        PrefBackend open(Context context, String name) throws IOException;
+    }
+
+    /**
+     * Told about changes not made through {@link PrefBackend#write(Map)}.
+     */
+    interface ChangeListener {
+        /**
+         * @param key
+         *            null if all keys may have changed
+         */
+        void onChanged(String key);
+    }
+
+    boolean contains(String key);
+
+    /**
+     * @return all values, may be a snapshot or an unmodifiable view
+     */
+    Map<String, ?> getAll();
+
+    String getString(String key, String defValue);
+
+    boolean getBoolean(String key, boolean defValue);
+
+    int getInt(String key, int defValue);
+
+    long getLong(String key, long defValue);
+
+    float getFloat(String key, float defValue);
+
+    /**
+     * Save the writes together, called on a background thread.
+     *
+     * @param writes
+     *            key to String, Boolean, Integer, Long or Float value; null
+     *            removes the key
+     * @return true if the writes were saved
+     */
+    boolean write(Map<String, ?> writes);
+
+    /**
+     * @param listener
+     *            held strongly, null to remove
+     */
+    void setChangeListener(ChangeListener listener);
+}
@@ -0,0 +1,799 @@
+package com.mengdd.utils.android;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Cached handle of one preferences file with an in-memory mirror of the keys
+ * read or written through it.
+ * <p>
+ * The file is stored by a {@link PrefBackend}, SharedPreferences unless
+ * another {@link #setBackendFactory(PrefBackend.Factory) factory} is set. A
+ * key is read from the backend once, after that reads are a lookup in a
+ * ConcurrentHashMap and never take the SharedPreferences lock. Changes made
+ * to the file by other code are picked up through a change listener, which
+ * drops the changed key from the mirror.
+ * <p>
+ * Writes update the mirror at once and are coalesced: the writes made within
+ * {@link #WRITE_DELAY_MS}, or between {@link #beginBatch()} and
+ * {@link #endBatch()}, are handed to the backend together on a background
+ * thread, so a SharedPreferences file is rewritten once with a single
+ * commit() for the whole burst. {@link #flush()} waits until all writes made
+ * so far are saved.
+ * <p>
+ * Unlike SharedPreferences.apply(), whose writes the framework finishes
+ * when an activity pauses or stops, writes not saved yet are lost if the
+ * process is killed. Call {@link #flushAll()} from onPause() of every
+ * activity, or of a common base activity, and from services before they
+ * stop.
+ * <p>
+ * Keys declared as {@link TypedPref} are read with {@link #get(TypedPref)}:
+ * their decoded values are kept in an array indexed by the slot of the
+ * declaration, so a read skips the lookup by key.
+ * <p>
+ * Listeners {@link #subscribe(String, KeyListener, Executor) subscribe} to
+ * single keys and are only called for changes of those keys, once for any
+ * number of changes made before the call runs.
+ * <p>
+ * {@link #preload(Context, String...)} opens files and loads their values
+ * into the mirror on background threads ahead of their first use.
+ * <p>
+ * As with SharedPreferences, reading a key as a different type than it was
+ * stored with throws a ClassCastException.
+ */
+public class PrefStore {
+
+    /** Time writes are collected before they are saved together. */
+    public static final long WRITE_DELAY_MS = 100;
+
+    /**
+     * Told that a subscribed key changed, read the new value from the store.
+     */
+    public interface KeyListener {
+        void onKeyChanged(PrefStore store, String key);
+    }
+
+    /** Marks a key known to be absent, or removed by a pending write. */
+    private static final Object ABSENT = new Object();
+
+    static final int TYPE_STRING = 0;
+    static final int TYPE_BOOLEAN = 1;
+    static final int TYPE_INT = 2;
+    static final int TYPE_LONG = 3;
+    static final int TYPE_FLOAT = 4;
+
+    private static final Object[] NO_SLOTS = new Object[0];
+
+    private static final String LOG_TAG = "PrefStore";
+
+    private static final ConcurrentHashMap<String, PrefStore> STORES = new ConcurrentHashMap<String, PrefStore>();
+
+    // files being preloaded; their store is in STORES before it is loaded,
+    // so get() checks this first and waits for them
+    private static final ConcurrentHashMap<String, CountDownLatch> LOADING = new ConcurrentHashMap<String, CountDownLatch>();
+
+    // one thread for all files, which also keeps the writes of a file in order
+    private static final ScheduledExecutorService WRITER = new ScheduledThreadPoolExecutor(
+            1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PrefStore-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static volatile PrefBackend.Factory sBackendFactory = SharedPreferencesBackend.FACTORY;
+
+    private static volatile Executor sMainThreadExecutor;
+
+    private final String mName;
+    private final PrefBackend mBackend;
+    private final ConcurrentHashMap<String, Object> mMirror = new ConcurrentHashMap<String, Object>();
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription>> mSubscriptions = new ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription>>();
+
+    // guarded by mLock: writes not handed to the writer yet, the writes the
+    // writer is saving, the batch nesting depth and whether a save is
+    // scheduled; mChangeCount counts listener calls, written under mLock
+    private final Object mLock = new Object();
+    private HashMap<String, Object> mPending = new HashMap<String, Object>();
+    private Map<String, Object> mWriting;
+    private int mBatchDepth;
+    private boolean mScheduled;
+    private volatile int mChangeCount;
+
+    // decoded values of TypedPref keys by slot, null if not cached; written
+    // under mLock, each write republishes the array through the volatile
+    // field. mSlotsOfKey maps a key to the slots caching it.
+    private volatile Object[] mSlots = NO_SLOTS;
+    private final HashMap<String, int[]> mSlotsOfKey = new HashMap<String, int[]>();
+
+    private final Runnable mWriteTask = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    private final PrefBackend.ChangeListener mListener = new PrefBackend.ChangeListener() {
+        @Override
+        public void onChanged(String key) {
+            synchronized (mLock) {
+                mChangeCount++;
+                if (key == null) {
+                    mMirror.clear();
+                    mSlots = new Object[mSlots.length];
+                    restoreUnsaved();
+                }
+                else if (!isUnsaved(key)) {
+                    mMirror.remove(key);
+                    clearSlots(key);
+                }
+                else {
+                    // a newer write of the key is not saved yet and will
+                    // replace this value
+                    return;
+                }
+            }
+            notifyChanged(key);
+        }
+    };
+
+    private PrefStore(String name, PrefBackend backend) {
+        mName = name;
+        mBackend = backend;
+        mBackend.setChangeListener(mListener);
+    }
+
+    /**
+     * Choose the backend of the stores opened from now on, for example
+     * {@link MappedPrefBackend#FACTORY}. Set it before the first store is
+     * opened, existing data is not moved between backends.
+     */
+    public static void setBackendFactory(PrefBackend.Factory factory) {
+        sBackendFactory = factory;
+    }
+
+    /**
+     * @return the store of the default preferences file, as used by
+     *         PreferenceManager
+     */
+    public static PrefStore getDefault(Context context) {
+        return get(context, getDefaultName(context));
+    }
+
+    /**
+     * @return the name of the default preferences file
+     */
+    public static String getDefaultName(Context context) {
+        return context.getPackageName() + "_preferences";
+    }
+
+    /**
+     * @return the store of the private preferences file with the name; if
+     *         the file is being preloaded, waits until it is loaded
+     * @throws IllegalStateException
+     *             if the backend cannot be opened
+     */
+    public static PrefStore get(Context context, String name) {
+        CountDownLatch loading = LOADING.get(name);
+        if (loading != null) {
+            awaitPreload(name, loading);
+        }
+        PrefStore store = STORES.get(name);
+        if (store != null) {
+            return store;
+        }
+        return create(context, name);
+    }
+
+    /**
+     * Open the files and load all their values on background threads, one
+     * per file, so the first reads on the main thread don't wait for the
+     * file to be parsed. Call it as early as possible, for example in
+     * Application.onCreate(). Each file logs a trace event when it is ready.
+     *
+     * @param context
+     * @param names
+     *            preferences file names, see {@link #getDefaultName(Context)}
+     */
+    public static void preload(Context context, String... names) {
+        final Context appContext = context.getApplicationContext();
+        final long start = System.nanoTime();
+        for (final String name : names) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            if (STORES.containsKey(name)
+                    || LOADING.putIfAbsent(name, latch) != null) {
+                continue;
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        create(appContext, name).loadAll();
+                        LogUtils.event(LOG_TAG).msg("prefs ready")
+                                .kv("file", name)
+                                .kv("ms", (System.nanoTime() - start) / 1000000)
+                                .log();
+                    }
+                    catch (RuntimeException e) {
+                        // get() opens the file again and reports the error
+                        LogUtils.e(LOG_TAG, "preload " + name + " failed", e);
+                    }
+                    finally {
+                        LOADING.remove(name);
+                        latch.countDown();
+                    }
+                }
+            }, "PrefStore-preload-" + name);
+            thread.start();
+        }
+    }
+
+    private static void awaitPreload(String name, CountDownLatch latch) {
+        long start = System.nanoTime();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        LogUtils.event(LOG_TAG).msg("waited for prefs preload")
+                .kv("file", name)
+                .kv("ms", (System.nanoTime() - start) / 1000000).log();
+    }
+
+    private static PrefStore create(Context context, String name) {
+        synchronized (STORES) {
+            PrefStore store = STORES.get(name);
+            if (store == null) {
+                try {
+                    store = new PrefStore(name, sBackendFactory.open(context,
+                            name));
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException("Cannot open preferences "
+                            + name, e);
+                }
+                STORES.put(name, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Open a store kept in a {@link MappedPrefBackend} file of the directory,
+     * without a Context, for tests on a plain JVM or data outside the app's
+     * preferences.
+     *
+     * @throws IOException
+     */
+    public static PrefStore open(File dir, String name) throws IOException {
+        String key = new File(dir, name).getPath();
+        synchronized (STORES) {
+            PrefStore store = STORES.get(key);
+            if (store == null) {
+                store = new PrefStore(key, MappedPrefBackend.open(dir, name));
+                STORES.put(key, store);
+            }
+            return store;
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public PrefBackend getBackend() {
+        return mBackend;
+    }
+
+    public boolean contains(String key) {
+        Object value = mMirror.get(key);
+        if (value != null) {
+            return value != ABSENT;
+        }
+        return mBackend.contains(key);
+    }
+
+    public String getString(String key, String defValue) {
+        Object value = read(key, TYPE_STRING);
+        return value == ABSENT ? defValue : (String) value;
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = read(key, TYPE_BOOLEAN);
+        return value == ABSENT ? defValue : (Boolean) value;
+    }
+
+    public int getInt(String key, int defValue) {
+        Object value = read(key, TYPE_INT);
+        return value == ABSENT ? defValue : (Integer) value;
+    }
+
+    public long getLong(String key, long defValue) {
+        Object value = read(key, TYPE_LONG);
+        return value == ABSENT ? defValue : (Long) value;
+    }
+
+    public float getFloat(String key, float defValue) {
+        Object value = read(key, TYPE_FLOAT);
+        return value == ABSENT ? defValue : (Float) value;
+    }
+
+    /**
+     * @return the value of the key, its default if absent or not decodable
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(TypedPref<T> pref) {
+        Object[] slots = mSlots;
+        int slot = pref.getSlot();
+        if (slot < slots.length) {
+            Object value = slots[slot];
+            if (value != null) {
+                return value == ABSENT ? pref.getDefault() : (T) value;
+            }
+        }
+        return fillSlot(pref);
+    }
+
+    /**
+     * @param value
+     *            null removes the key
+     */
+    public <T> void set(TypedPref<T> pref, T value) {
+        write(pref.getName(), value == null ? ABSENT : pref.encode(value));
+    }
+
+    /**
+     * @param value
+     *            null removes the key, like SharedPreferences
+     */
+    public void putString(String key, String value) {
+        write(key, value == null ? ABSENT : value);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        write(key, value);
+    }
+
+    public void putInt(String key, int value) {
+        write(key, value);
+    }
+
+    public void putLong(String key, long value) {
+        write(key, value);
+    }
+
+    public void putFloat(String key, float value) {
+        write(key, value);
+    }
+
+    public void remove(String key) {
+        write(key, ABSENT);
+    }
+
+    /**
+     * Hold back the writes until the matching {@link #endBatch()}, so they
+     * are saved together. Batches nest, and apply to the writes of all
+     * threads.
+     */
+    public void beginBatch() {
+        synchronized (mLock) {
+            mBatchDepth++;
+        }
+    }
+
+    /**
+     * End a batch started by {@link #beginBatch()}, the outermost one saves
+     * the collected writes right away.
+     */
+    public void endBatch() {
+        synchronized (mLock) {
+            if (mBatchDepth == 0) {
+                throw new IllegalStateException("endBatch() without beginBatch()");
+            }
+            if (--mBatchDepth == 0 && !mPending.isEmpty()) {
+                mScheduled = true;
+                WRITER.execute(mWriteTask);
+            }
+        }
+    }
+
+    /**
+     * Save the writes made so far, including those of an open batch, and
+     * wait until they are on disk. Must not be called from the writer thread.
+     *
+     * @return false if saving failed or the wait was interrupted
+     */
+    public boolean flush() {
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("PrefStore.flush");
+        Future<Boolean> done = WRITER.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return writePending();
+            }
+        });
+        try {
+            return done.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e) {
+            e.printStackTrace();
+            return false;
+        }
+        finally {
+            ThreadPolicy.end(violation);
+        }
+    }
+
+    /**
+     * Save the writes of every store and wait for them. Call it from
+     * onPause(), see the class comment; it returns at once if nothing is
+     * waiting to be saved.
+     *
+     * @return false if saving any store failed
+     */
+    public static boolean flushAll() {
+        Future<Boolean> done = WRITER.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean ok = true;
+                for (PrefStore store : STORES.values()) {
+                    ok &= store.writePending();
+                }
+                return ok;
+            }
+        });
+        try {
+            return done.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Call the listener after changes of the key, on the executor. The
+     * listener is held weakly: keep a reference to it for as long as it
+     * should be called.
+     *
+     * @param key
+     * @param listener
+     * @param executor
+     *            runs the calls, see {@link #mainThreadExecutor()}
+     */
+    public void subscribe(String key, KeyListener listener, Executor executor) {
+        CopyOnWriteArrayList<Subscription> subscriptions = mSubscriptions
+                .get(key);
+        if (subscriptions == null) {
+            CopyOnWriteArrayList<Subscription> created = new CopyOnWriteArrayList<Subscription>();
+            subscriptions = mSubscriptions.putIfAbsent(key, created);
+            if (subscriptions == null) {
+                subscriptions = created;
+            }
+        }
+        subscriptions.add(new Subscription(this, key, listener, executor));
+    }
+
+    /**
+     * {@link #subscribe(String, KeyListener, Executor)} with calls on the
+     * main thread.
+     */
+    public void subscribe(String key, KeyListener listener) {
+        subscribe(key, listener, mainThreadExecutor());
+    }
+
+    public void unsubscribe(String key, KeyListener listener) {
+        CopyOnWriteArrayList<Subscription> subscriptions = mSubscriptions
+                .get(key);
+        if (subscriptions != null) {
+            for (Subscription subscription : subscriptions) {
+                KeyListener l = subscription.listener.get();
+                if (l == null || l == listener) {
+                    subscriptions.remove(subscription);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return executor posting to the main thread
+     */
+    public static Executor mainThreadExecutor() {
+        if (sMainThreadExecutor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sMainThreadExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
+        }
+        return sMainThreadExecutor;
+    }
+
+    private void write(String key, Object value) {
+        synchronized (mLock) {
+            mMirror.put(key, value);
+            clearSlots(key);
+            mPending.put(key, value);
+            if (mBatchDepth == 0 && !mScheduled) {
+                mScheduled = true;
+                WRITER.schedule(mWriteTask, WRITE_DELAY_MS,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+        notifyChanged(key);
+    }
+
+    /**
+     * @param key
+     *            null for all keys
+     */
+    private void notifyChanged(String key) {
+        if (mSubscriptions.isEmpty()) {
+            return;
+        }
+        if (key == null) {
+            for (CopyOnWriteArrayList<Subscription> subscriptions : mSubscriptions
+                    .values()) {
+                dispatch(subscriptions);
+            }
+        }
+        else {
+            CopyOnWriteArrayList<Subscription> subscriptions = mSubscriptions
+                    .get(key);
+            if (subscriptions != null) {
+                dispatch(subscriptions);
+            }
+        }
+    }
+
+    private static void dispatch(CopyOnWriteArrayList<Subscription> subscriptions) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener.get() == null) {
+                subscriptions.remove(subscription);
+            }
+            else if (subscription.pending.compareAndSet(false, true)) {
+                subscription.executor.execute(subscription);
+            }
+            // else a call is already queued and will see this change too
+        }
+    }
+
+    private static final class Subscription implements Runnable {
+        final PrefStore store;
+        final String key;
+        final WeakReference<KeyListener> listener;
+        final Executor executor;
+        final AtomicBoolean pending = new AtomicBoolean();
+
+        Subscription(PrefStore store, String key, KeyListener listener,
+                Executor executor) {
+            this.store = store;
+            this.key = key;
+            this.listener = new WeakReference<KeyListener>(listener);
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            // cleared before the call, so a change made meanwhile queues a
+            // new one
+            pending.set(false);
+            KeyListener l = listener.get();
+            if (l != null) {
+                l.onKeyChanged(store, key);
+            }
+        }
+    }
+
+    /**
+     * Runs on the writer thread, saves the pending writes together.
+     */
+    private boolean writePending() {
+        Map<String, Object> writes;
+        synchronized (mLock) {
+            mScheduled = false;
+            if (mPending.isEmpty()) {
+                return true;
+            }
+            writes = mPending;
+            mWriting = writes;
+            mPending = new HashMap<String, Object>();
+        }
+        boolean ok = false;
+        try {
+            HashMap<String, Object> values = new HashMap<String, Object>(writes);
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                if (entry.getValue() == ABSENT) {
+                    entry.setValue(null);
+                }
+            }
+            ok = mBackend.write(values);
+        }
+        finally {
+            synchronized (mLock) {
+                mWriting = null;
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Whether the key has a write the backend doesn't have yet, the mirror
+     * is then newer. Called with mLock held.
+     */
+    private boolean isUnsaved(String key) {
+        return mPending.containsKey(key)
+                || (mWriting != null && mWriting.containsKey(key));
+    }
+
+    /**
+     * Put the unsaved writes back after the mirror was cleared. Called with
+     * mLock held.
+     */
+    private void restoreUnsaved() {
+        if (mWriting != null) {
+            mMirror.putAll(mWriting);
+        }
+        mMirror.putAll(mPending);
+    }
+
+    /**
+     * Decode the mirrored value of a TypedPref and cache it in its slot.
+     */
+    private <T> T fillSlot(TypedPref<T> pref) {
+        String key = pref.getName();
+        Object stored = read(key, pref.getStorageType());
+        T value = stored == ABSENT ? null : pref.decode(stored);
+        Object cached = stored == ABSENT || value == null ? ABSENT : value;
+        int slot = pref.getSlot();
+        synchronized (mLock) {
+            // cache only if the key didn't change since it was read
+            if (mMirror.get(key) == stored) {
+                Object[] slots = mSlots;
+                if (slot >= slots.length) {
+                    Object[] grown = new Object[Math.max(slot + 1,
+                            slots.length * 2)];
+                    System.arraycopy(slots, 0, grown, 0, slots.length);
+                    slots = grown;
+                }
+                slots[slot] = cached;
+                addSlotOfKey(key, slot);
+                mSlots = slots;
+            }
+        }
+        return cached == ABSENT ? pref.getDefault() : value;
+    }
+
+    /**
+     * Called with mLock held.
+     */
+    private void addSlotOfKey(String key, int slot) {
+        int[] slots = mSlotsOfKey.get(key);
+        if (slots == null) {
+            mSlotsOfKey.put(key, new int[] { slot });
+            return;
+        }
+        for (int s : slots) {
+            if (s == slot) {
+                return;
+            }
+        }
+        int[] grown = new int[slots.length + 1];
+        System.arraycopy(slots, 0, grown, 0, slots.length);
+        grown[slots.length] = slot;
+        mSlotsOfKey.put(key, grown);
+    }
+
+    /**
+     * Drop the decoded values of the key. Called with mLock held.
+     */
+    private void clearSlots(String key) {
+        int[] keySlots = mSlotsOfKey.get(key);
+        if (keySlots != null) {
+            Object[] slots = mSlots;
+            for (int slot : keySlots) {
+                slots[slot] = null;
+            }
+            mSlots = slots;
+        }
+    }
+
+    /**
+     * Copy all values of the backend into the mirror.
+     */
+    private void loadAll() {
+        int changes = mChangeCount;
+        Map<String, ?> all = mBackend.getAll();
+        if (changes != mChangeCount) {
+            // changed while loading, leave it to the reads
+            return;
+        }
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            if (entry.getValue() != null) {
+                mMirror.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the mirrored value, loaded from the backend on a miss, or
+     *         ABSENT
+     */
+    private Object read(String key, int type) {
+        Object value = mMirror.get(key);
+        if (value != null) {
+            return value;
+        }
+        int changes = mChangeCount;
+        value = load(key, type);
+        // a write since the load wins over the loaded value
+        Object previous = mMirror.putIfAbsent(key, value);
+        if (previous != null) {
+            return previous;
+        }
+        if (changes != mChangeCount) {
+            // the file changed while loading, the value may be stale
+            synchronized (mLock) {
+                mMirror.remove(key, value);
+                clearSlots(key);
+            }
+        }
+        return value;
+    }
+
+    private Object load(String key, int type) {
+        if (!mBackend.contains(key)) {
+            return ABSENT;
+        }
+        switch (type) {
+        case TYPE_STRING:
+            return mBackend.getString(key, null);
+        case TYPE_BOOLEAN:
+            return mBackend.getBoolean(key, false);
+        case TYPE_INT:
+            return mBackend.getInt(key, 0);
+        case TYPE_LONG:
+            return mBackend.getLong(key, 0);
+        default:
+            return mBackend.getFloat(key, 0);
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package com.mengdd.utils.android;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 
 public class PrefUtils {
     private class PrefFile {
@@ -17,28 +15,64 @@ public class PrefUtils {
     }
 
 
-    //Provide get/set methods for every key
+    public static class Pref {
+        //declare every key once with its file, type and default value, then
+        //use get()/set() of the declaration instead of writing a pair of
+        //methods, e.g. Pref.USER_NAME.get(context)
+        public static final TypedPref<String> USER_NAME = TypedPref.ofString(null, PrefKey.USER_NAME, null);//use default sharedPreferences here
+        public static final TypedPref<Boolean> APP_FIRST_LAUNCH = TypedPref.ofBoolean(PrefFile.SETTINGS, PrefKey.APP_FIRST_LAUNCH, true);
+    }
+
+
+    //PrefStore caches the preferences handle and the values, reads after the
+    //first one don't touch SharedPreferences and writes are saved together
+    //in the background; call flush() from onPause() of every activity, or
+    //writes made just before the process is killed are lost
 
 
+    /**
+     * Load preferences files in the background at startup, the getters wait
+     * for a file that is still loading.
+     *
+     * @param context
+     * @param files
+     *            file names, the default and settings files if none
+     */
+    public static void preload(final Context context, String... files) {
+        if (files.length == 0) {
+            files = new String[] { PrefStore.getDefaultName(context), PrefFile.SETTINGS };
+        }
+        PrefStore.preload(context, files);
+    }
+
+    /**
+     * Save all preferences writes now, call it from onPause().
+     */
+    public static boolean flush() {
+        return PrefStore.flushAll();
+    }
+
     public static void setPrefUserName(final Context context, String userName) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);//use default sharedPreferences here
-        sp.edit().putString(PrefKey.USER_NAME, userName).commit();
-        //commit() is sync
-        //apply() is async
+        Pref.USER_NAME.set(context, userName);
     }
 
     public static String getPrefUserName(final Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        return sp.getString(PrefKey.USER_NAME, null);
+        return Pref.USER_NAME.get(context);
+    }
+
+    /**
+     * Be told on the main thread when the user name changes, instead of
+     * polling it. The listener is held weakly.
+     */
+    public static void subscribePrefUserName(final Context context, PrefStore.KeyListener listener) {
+        Pref.USER_NAME.subscribe(context, listener);
     }
 
     public static boolean isAppFirstLaunched(final Context context) {
-        SharedPreferences sp = context.getSharedPreferences(PrefFile.SETTINGS, Context.MODE_PRIVATE);
-        return sp.getBoolean(PrefKey.APP_FIRST_LAUNCH, true);
+        return Pref.APP_FIRST_LAUNCH.get(context);
     }
 
     public static void setAppFirstLaunched(final Context context, boolean value) {
-        SharedPreferences sp = context.getSharedPreferences(PrefFile.SETTINGS, Context.MODE_PRIVATE);
-        sp.edit().putBoolean(PrefKey.APP_FIRST_LAUNCH, value).apply();
+        Pref.APP_FIRST_LAUNCH.set(context, value);
     }
 }
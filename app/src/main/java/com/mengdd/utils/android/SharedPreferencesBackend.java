@@ -0,0 +1,175 @@
+package com.mengdd.utils.android;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+
+/**
+ * {@link PrefBackend} of a SharedPreferences file, written with one commit()
+ * per batch of writes.
+ * <p>
+ * SharedPreferences calls its listeners for our own commits too, posted to
+ * the main thread, so the callback arrives after write() returned. The last
+ * value written per key is remembered and a callback is only forwarded if
+ * the file holds a different value, which is a change made by other code.
+ */
+public class SharedPreferencesBackend implements PrefBackend {
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public PrefBackend open(Context context, String name) {
+            return new SharedPreferencesBackend(context.getSharedPreferences(
+                    name, Context.MODE_PRIVATE));
+        }
+    };
+
+    /** Marks a key removed by write(). */
+    private static final Object REMOVED = new Object();
+
+    private final SharedPreferences mPrefs;
+    private volatile ChangeListener mListener;
+
+    // last value written per key, REMOVED for a removal
+    private final ConcurrentHashMap<String, Object> mWritten = new ConcurrentHashMap<String, Object>();
+
+    // SharedPreferences only keeps a weak reference to its listeners
+    private final OnSharedPreferenceChangeListener mPrefsListener = new OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sp, String key) {
+            ChangeListener listener = mListener;
+            if (listener == null) {
+                return;
+            }
+            if (key != null) {
+                Object written = mWritten.get(key);
+                if (written != null && holds(key, written)) {
+                    // our own write
+                    return;
+                }
+                mWritten.remove(key);
+            }
+            else {
+                mWritten.clear();
+            }
+            listener.onChanged(key);
+        }
+    };
+
+    public SharedPreferencesBackend(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    public SharedPreferences getSharedPreferences() {
+        return mPrefs;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mPrefs.contains(key);
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return mPrefs.getAll();
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return mPrefs.getString(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return mPrefs.getBoolean(key, defValue);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return mPrefs.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return mPrefs.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return mPrefs.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean write(Map<String, ?> writes) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (Map.Entry<String, ?> entry : writes.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            // before the commit, its callbacks can run at once
+            mWritten.put(key, value == null ? REMOVED : value);
+            if (value == null) {
+                editor.remove(key);
+            }
+            else if (value instanceof String) {
+                editor.putString(key, (String) value);
+            }
+            else if (value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            }
+            else if (value instanceof Integer) {
+                editor.putInt(key, (Integer) value);
+            }
+            else if (value instanceof Long) {
+                editor.putLong(key, (Long) value);
+            }
+            else {
+                editor.putFloat(key, (Float) value);
+            }
+        }
+        return editor.commit();
+    }
+
+    /**
+     * Whether the file holds the value written by write().
+     */
+    private boolean holds(String key, Object written) {
+        if (written == REMOVED) {
+            return !mPrefs.contains(key);
+        }
+        if (!mPrefs.contains(key)) {
+            return false;
+        }
+        try {
+            if (written instanceof String) {
+                return written.equals(mPrefs.getString(key, null));
+            }
+            if (written instanceof Boolean) {
+                return (Boolean) written == mPrefs.getBoolean(key, false);
+            }
+            if (written instanceof Integer) {
+                return (Integer) written == mPrefs.getInt(key, 0);
+            }
+            if (written instanceof Long) {
+                return (Long) written == mPrefs.getLong(key, 0);
+            }
+            return ((Float) written).floatValue() == mPrefs.getFloat(key, 0);
+        }
+        catch (ClassCastException e) {
+            // stored with another type by other code
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void setChangeListener(ChangeListener listener) {
+        if (mListener == null && listener != null) {
+            mPrefs.registerOnSharedPreferenceChangeListener(mPrefsListener);
+        }
+        else if (mListener != null && listener == null) {
+            mPrefs.unregisterOnSharedPreferenceChangeListener(mPrefsListener);
+        }
+        mListener = listener;
+    }
+}
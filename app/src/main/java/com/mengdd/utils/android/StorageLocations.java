@@ -0,0 +1,314 @@
+package com.mengdd.utils.android;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Environment;
+
+/**
+ * Snapshot of the storage directories of the device and the application.
+ * <p>
+ * Environment and Context do disk I/O and create directories to answer
+ * getFilesDir(), getExternalCacheDir() and the like. The directories are
+ * resolved once on a background thread started by {@link #init(Context)}
+ * and then read from this immutable snapshot. A receiver of the media mount
+ * broadcasts replaces the snapshot when external storage is mounted,
+ * unmounted or removed, nothing else invalidates it.
+ * <p>
+ * java.nio.file.Path is not available on the Android versions this library
+ * supports, so the directories are {@link File}s.
+ */
+public final class StorageLocations {
+
+    private static final String LOG_TAG = "StorageLocations";
+
+    private static final Object LOCK = new Object();
+
+    // guarded by LOCK, sCurrent is also read without it
+    private static Context sContext;
+    private static BroadcastReceiver sReceiver;
+    private static FutureTask<StorageLocations> sResolving;
+    private static volatile StorageLocations sCurrent;
+
+    private final File mRootDirectory;
+    private final File mDataDirectory;
+    private final File mDownloadCacheDirectory;
+    private final File mExternalStorageDirectory;
+    private final String mExternalStorageState;
+    private final File mFilesDir;
+    private final File mCacheDir;
+    private final File mExternalFilesDir;
+    private final File mExternalCacheDir;
+
+    // application context, null if resolved before init; and
+    // getExternalFilesDir(type) by type, filled on first use of a type
+    private final Context mContext;
+    private final ConcurrentHashMap<String, File> mExternalFilesDirs = new ConcurrentHashMap<String, File>();
+
+    private StorageLocations(Context context) {
+        mContext = context;
+        mRootDirectory = Environment.getRootDirectory();
+        mDataDirectory = Environment.getDataDirectory();
+        mDownloadCacheDirectory = Environment.getDownloadCacheDirectory();
+        mExternalStorageDirectory = Environment.getExternalStorageDirectory();
+        mExternalStorageState = Environment.getExternalStorageState();
+        if (context != null) {
+            mFilesDir = context.getFilesDir();
+            mCacheDir = context.getCacheDir();
+            // null if external storage is not available
+            mExternalFilesDir = context.getExternalFilesDir(null);
+            mExternalCacheDir = context.getExternalCacheDir();
+        }
+        else {
+            mFilesDir = null;
+            mCacheDir = null;
+            mExternalFilesDir = null;
+            mExternalCacheDir = null;
+        }
+    }
+
+    /**
+     * Start resolving the directories in the background and follow mount
+     * events. Call it as early as possible, for example in
+     * Application.onCreate().
+     */
+    public static void init(Context context) {
+        Context appContext = context.getApplicationContext();
+        synchronized (LOCK) {
+            if (sContext != null) {
+                return;
+            }
+            sContext = appContext;
+            sReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context c, Intent intent) {
+                    LogUtils.event(LOG_TAG).msg("storage changed")
+                            .kv("action", intent.getAction()).log();
+                    invalidate();
+                }
+            };
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+            filter.addAction(Intent.ACTION_MEDIA_UNMOUNTED);
+            filter.addAction(Intent.ACTION_MEDIA_REMOVED);
+            filter.addAction(Intent.ACTION_MEDIA_EJECT);
+            filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
+            filter.addDataScheme("file");
+            appContext.registerReceiver(sReceiver, filter);
+            // a snapshot made before init has no application directories
+            sCurrent = null;
+            startResolving();
+        }
+    }
+
+    /**
+     * @return the snapshot, waits if it is being resolved
+     */
+    public static StorageLocations get(Context context) {
+        StorageLocations current = sCurrent;
+        if (current != null && current.mContext != null) {
+            return current;
+        }
+        init(context);
+        return get();
+    }
+
+    /**
+     * @return the snapshot, waits if it is being resolved; without the
+     *         application directories if {@link #init(Context)} was not
+     *         called
+     */
+    public static StorageLocations get() {
+        StorageLocations current = sCurrent;
+        if (current != null) {
+            return current;
+        }
+        FutureTask<StorageLocations> resolving;
+        synchronized (LOCK) {
+            if (sResolving == null) {
+                startResolving();
+            }
+            resolving = sResolving;
+        }
+        return await(resolving);
+    }
+
+    /**
+     * @return the snapshot if one is resolved, null otherwise; never waits
+     */
+    public static StorageLocations peek() {
+        return sCurrent;
+    }
+
+    /**
+     * Resolve the directories again in the background. Called on mount
+     * events. The current snapshot is still returned until the new one is
+     * resolved, so readers on the main thread never wait for it.
+     */
+    public static void invalidate() {
+        synchronized (LOCK) {
+            startResolving();
+        }
+    }
+
+    /**
+     * Called with LOCK held.
+     */
+    private static void startResolving() {
+        final Context context = sContext;
+        final long start = System.nanoTime();
+        FutureTask<StorageLocations> task = new FutureTask<StorageLocations>(
+                new Callable<StorageLocations>() {
+                    @Override
+                    public StorageLocations call() {
+                        return new StorageLocations(context);
+                    }
+                }) {
+            @Override
+            protected void done() {
+                synchronized (LOCK) {
+                    // a newer resolution started meanwhile wins
+                    if (sResolving != this) {
+                        return;
+                    }
+                    sResolving = null;
+                    if (isCancelled()) {
+                        return;
+                    }
+                    try {
+                        sCurrent = get();
+                    }
+                    catch (Exception e) {
+                        LogUtils.e(LOG_TAG, "resolve failed", e);
+                        return;
+                    }
+                }
+                LogUtils.event(LOG_TAG).msg("storage resolved")
+                        .kv("ms", (System.nanoTime() - start) / 1000000)
+                        .log();
+            }
+        };
+        sResolving = task;
+        Thread thread = new Thread(task, "StorageLocations-resolve");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static StorageLocations await(FutureTask<StorageLocations> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public File getRootDirectory() {
+        return mRootDirectory;
+    }
+
+    public File getDataDirectory() {
+        return mDataDirectory;
+    }
+
+    public File getDownloadCacheDirectory() {
+        return mDownloadCacheDirectory;
+    }
+
+    public File getExternalStorageDirectory() {
+        return mExternalStorageDirectory;
+    }
+
+    /**
+     * @return Environment.getExternalStorageState() when resolved
+     */
+    public String getExternalStorageState() {
+        return mExternalStorageState;
+    }
+
+    public boolean isExternalStorageMounted() {
+        return Environment.MEDIA_MOUNTED.equals(mExternalStorageState);
+    }
+
+    /**
+     * Same directory as Environment.getExternalStoragePublicDirectory(type),
+     * which is not created.
+     */
+    public File getExternalStoragePublicDirectory(String type) {
+        return new File(mExternalStorageDirectory, type);
+    }
+
+    /**
+     * @return null if resolved without a context
+     */
+    public File getFilesDir() {
+        return mFilesDir;
+    }
+
+    /**
+     * @return null if resolved without a context
+     */
+    public File getCacheDir() {
+        return mCacheDir;
+    }
+
+    /**
+     * @param type
+     *            null for the root of the external files directory
+     * @return null if external storage is not available or resolved without
+     *         a context
+     */
+    public File getExternalFilesDir(String type) {
+        if (type == null || mExternalFilesDir == null) {
+            return mExternalFilesDir;
+        }
+        File dir = mExternalFilesDirs.get(type);
+        if (dir == null) {
+            // creates the directory, once per type and snapshot
+            dir = mContext.getExternalFilesDir(type);
+            if (dir != null) {
+                mExternalFilesDirs.putIfAbsent(type, dir);
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * @return null if external storage is not available or resolved without
+     *         a context
+     */
+    public File getExternalCacheDir() {
+        return mExternalCacheDir;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageLocations[external=" + mExternalStorageDirectory + " ("
+                + mExternalStorageState + "), files=" + mFilesDir
+                + ", externalFiles=" + mExternalFilesDir + "]";
+    }
+}
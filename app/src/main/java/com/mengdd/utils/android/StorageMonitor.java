@@ -0,0 +1,425 @@
+package com.mengdd.utils.android;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+
+/**
+ * Samples the usable and total space of the application directories on a
+ * background thread and keeps the last values, so code about to write can
+ * check the headroom with a volatile read instead of a statfs call per
+ * write.
+ * <p>
+ * The directories are those of the {@link StorageLocations} snapshot: files,
+ * cache, and external files and external cache while external storage is
+ * mounted. A new snapshot, after a mount event, is picked up by the next
+ * sample. Listeners added with {@link #addListener(long, Listener)} are
+ * called on the monitor thread when the usable space of a filesystem drops
+ * below their threshold and when it is back above it. Directories below the
+ * same mount point in /proc/mounts, such as files and cache, share a
+ * filesystem and are reported once, with the first of them; emulated
+ * external storage is a mount of its own and reported separately. A
+ * directory that is missing or not mounted when sampled is not reported at
+ * all.
+ */
+public final class StorageMonitor {
+
+    public static final long DEFAULT_INTERVAL_MS = 30 * 1000;
+
+    /**
+     * Called on the monitor thread, once per filesystem and threshold
+     * crossing.
+     */
+    public interface Listener {
+        void onLowSpace(Volume volume, long thresholdBytes);
+
+        void onSpaceRecovered(Volume volume, long thresholdBytes);
+    }
+
+    /**
+     * Last sampled space of one directory.
+     */
+    public static final class Volume {
+        private final File mDirectory;
+        private final String mPrefix;
+        // identifies the filesystem
+        private final String mMountPoint;
+        private volatile long mUsableBytes = -1;
+        private volatile long mTotalBytes = -1;
+        private volatile long mSampledAt;
+
+        Volume(File directory, List<String> mountPoints) {
+            mDirectory = directory;
+            mPrefix = directory.getAbsolutePath() + File.separatorChar;
+            mMountPoint = findMountPoint(directory, mountPoints);
+        }
+
+        public File getDirectory() {
+            return mDirectory;
+        }
+
+        /**
+         * @return bytes available to the application, -1 before the first
+         *         sample
+         */
+        public long getUsableBytes() {
+            return mUsableBytes;
+        }
+
+        /**
+         * @return size of the partition, -1 before the first sample
+         */
+        public long getTotalBytes() {
+            return mTotalBytes;
+        }
+
+        /**
+         * @return System.currentTimeMillis() of the last sample, 0 if none
+         */
+        public long getSampledAt() {
+            return mSampledAt;
+        }
+
+        /**
+         * @return whether the bytes fit in the usable space; true before the
+         *         first sample
+         */
+        public boolean hasHeadroom(long bytes) {
+            long usable = mUsableBytes;
+            return usable < 0 || bytes <= usable;
+        }
+
+        boolean contains(String path) {
+            return path.startsWith(mPrefix)
+                    || (path.length() == mPrefix.length() - 1 && mPrefix
+                            .startsWith(path));
+        }
+
+        /**
+         * @return false if the directory doesn't exist or is not mounted
+         */
+        boolean sample() {
+            // both 0 if the directory doesn't exist or is not mounted
+            mUsableBytes = mDirectory.getUsableSpace();
+            mTotalBytes = mDirectory.getTotalSpace();
+            mSampledAt = System.currentTimeMillis();
+            return mTotalBytes > 0;
+        }
+
+        /**
+         * @return the same for directories on the same filesystem
+         */
+        String fileSystemKey() {
+            return mMountPoint;
+        }
+
+        @Override
+        public String toString() {
+            return "Volume[" + mDirectory + " usable=" + mUsableBytes
+                    + " total=" + mTotalBytes + "]";
+        }
+    }
+
+    private static final class Threshold {
+        final long bytes;
+        final Listener listener;
+        // filesystem keys below the threshold, only used on the monitor
+        // thread
+        final HashSet<String> low = new HashSet<String>();
+
+        Threshold(long bytes, Listener listener) {
+            this.bytes = bytes;
+            this.listener = listener;
+        }
+    }
+
+    private static final String LOG_TAG = "StorageMonitor";
+
+    private static final Volume[] NO_VOLUMES = new Volume[0];
+
+    private static final CopyOnWriteArrayList<Threshold> THRESHOLDS = new CopyOnWriteArrayList<Threshold>();
+
+    private static final Object LOCK = new Object();
+
+    // guarded by LOCK
+    private static ScheduledExecutorService sExecutor;
+    private static ScheduledFuture<?> sTask;
+
+    // written on the monitor thread only
+    private static volatile Volume[] sVolumes = NO_VOLUMES;
+    private static StorageLocations sLocations;
+
+    private static final Runnable SAMPLE = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                sampleAll();
+            }
+            catch (RuntimeException e) {
+                // keep the schedule alive
+                LogUtils.e(LOG_TAG, "sample failed", e);
+            }
+        }
+    };
+
+    private StorageMonitor() {
+    }
+
+    /**
+     * Sample every intervalMs from now on, the first time at once. Calling
+     * it again changes the interval.
+     */
+    public static void start(Context context, long intervalMs) {
+        StorageLocations.init(context);
+        synchronized (LOCK) {
+            if (sExecutor == null) {
+                sExecutor = new ScheduledThreadPoolExecutor(1,
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r,
+                                        "StorageMonitor");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+            }
+            if (sTask != null) {
+                sTask.cancel(false);
+            }
+            sTask = sExecutor.scheduleWithFixedDelay(SAMPLE, 0, intervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static void start(Context context) {
+        start(context, DEFAULT_INTERVAL_MS);
+    }
+
+    /**
+     * Stop sampling, the last values stay readable.
+     */
+    public static void stop() {
+        synchronized (LOCK) {
+            if (sTask != null) {
+                sTask.cancel(false);
+                sTask = null;
+            }
+        }
+    }
+
+    /**
+     * Take a sample now on the monitor thread, for example after a large
+     * file was written or deleted. Does nothing if not started.
+     */
+    public static void requestSample() {
+        synchronized (LOCK) {
+            if (sTask != null) {
+                sExecutor.execute(SAMPLE);
+            }
+        }
+    }
+
+    /**
+     * @param thresholdBytes
+     *            the listener is told when the usable space of a filesystem
+     *            drops below this and when it is back
+     */
+    public static void addListener(long thresholdBytes, Listener listener) {
+        THRESHOLDS.add(new Threshold(thresholdBytes, listener));
+    }
+
+    public static void removeListener(Listener listener) {
+        for (Threshold threshold : THRESHOLDS) {
+            if (threshold.listener == listener) {
+                THRESHOLDS.remove(threshold);
+            }
+        }
+    }
+
+    /**
+     * @return the monitored directories with their last samples
+     */
+    public static List<Volume> getVolumes() {
+        ArrayList<Volume> volumes = new ArrayList<Volume>();
+        for (Volume volume : sVolumes) {
+            volumes.add(volume);
+        }
+        return volumes;
+    }
+
+    /**
+     * @return the monitored directory containing the file, null if none
+     */
+    public static Volume getVolume(File file) {
+        Volume[] volumes = sVolumes;
+        if (volumes.length == 0) {
+            return null;
+        }
+        String path = file.getAbsolutePath();
+        Volume found = null;
+        for (Volume volume : volumes) {
+            if (volume.contains(path)
+                    && (found == null || volume.mPrefix.length() > found.mPrefix
+                            .length())) {
+                found = volume;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the last sampled usable space of the directory containing the
+     *         file, -1 if it is not monitored or not sampled yet
+     */
+    public static long getUsableBytes(File file) {
+        Volume volume = getVolume(file);
+        return volume == null ? -1 : volume.getUsableBytes();
+    }
+
+    /**
+     * @return whether the bytes fit in the last sampled usable space of the
+     *         directory containing the file; true if it is not monitored or
+     *         not sampled yet
+     */
+    public static boolean hasHeadroom(File file, long bytes) {
+        Volume volume = getVolume(file);
+        return volume == null || volume.hasHeadroom(bytes);
+    }
+
+    /**
+     * Runs on the monitor thread.
+     */
+    private static void sampleAll() {
+        StorageLocations locations = StorageLocations.get();
+        if (locations != sLocations) {
+            sLocations = locations;
+            sVolumes = createVolumes(locations);
+        }
+        HashSet<String> checked = new HashSet<String>();
+        for (Volume volume : sVolumes) {
+            if (!volume.sample()) {
+                // unmounted, its 0 bytes are neither low nor recovered
+                continue;
+            }
+            String key = volume.fileSystemKey();
+            if (!checked.add(key)) {
+                // same space as a directory already checked
+                continue;
+            }
+            for (Threshold threshold : THRESHOLDS) {
+                checkThreshold(threshold, volume, key);
+            }
+        }
+    }
+
+    private static void checkThreshold(Threshold threshold, Volume volume,
+            String key) {
+        // a failing listener must not keep the others from being told
+        try {
+            if (volume.getUsableBytes() < threshold.bytes) {
+                if (threshold.low.add(key)) {
+                    LogUtils.event(LOG_TAG).msg("low space")
+                            .kv("dir", volume.getDirectory())
+                            .kv("usable", volume.getUsableBytes())
+                            .kv("threshold", threshold.bytes).log();
+                    threshold.listener.onLowSpace(volume, threshold.bytes);
+                }
+            }
+            else if (threshold.low.remove(key)) {
+                threshold.listener.onSpaceRecovered(volume, threshold.bytes);
+            }
+        }
+        catch (RuntimeException e) {
+            LogUtils.e(LOG_TAG, "listener failed: " + threshold.listener, e);
+        }
+    }
+
+    /**
+     * @return the longest mount point containing the canonical path of the
+     *         directory, or that path if none is known
+     */
+    static String findMountPoint(File directory, List<String> mountPoints) {
+        String path;
+        try {
+            path = directory.getCanonicalPath();
+        }
+        catch (IOException e) {
+            path = directory.getAbsolutePath();
+        }
+        String found = null;
+        for (String mountPoint : mountPoints) {
+            boolean contains = path.equals(mountPoint)
+                    || path.startsWith(mountPoint.endsWith("/") ? mountPoint
+                            : mountPoint + '/');
+            if (contains
+                    && (found == null || mountPoint.length() > found.length())) {
+                found = mountPoint;
+            }
+        }
+        return found != null ? found : path;
+    }
+
+    /**
+     * @return the mount points listed in /proc/mounts, empty if it can't be
+     *         read
+     */
+    private static List<String> readMountPoints() {
+        ArrayList<String> mountPoints = new ArrayList<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/mounts"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // device mount-point type options dump pass
+                String[] fields = line.split(" ");
+                if (fields.length > 1) {
+                    // spaces in the path are escaped in octal
+                    mountPoints.add(fields[1].replace("\\040", " "));
+                }
+            }
+        }
+        catch (IOException e) {
+            LogUtils.w(LOG_TAG, "can't read mount points", e);
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return mountPoints;
+    }
+
+    private static Volume[] createVolumes(StorageLocations locations) {
+        boolean external = locations.isExternalStorageMounted();
+        File[] dirs = new File[] { locations.getFilesDir(),
+                locations.getCacheDir(),
+                external ? locations.getExternalFilesDir(null) : null,
+                external ? locations.getExternalCacheDir() : null };
+        List<String> mountPoints = readMountPoints();
+        ArrayList<Volume> volumes = new ArrayList<Volume>();
+        for (File dir : dirs) {
+            if (dir != null) {
+                volumes.add(new Volume(dir, mountPoints));
+            }
+        }
+        return volumes.toArray(new Volume[volumes.size()]);
+    }
+}
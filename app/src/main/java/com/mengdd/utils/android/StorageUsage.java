@@ -0,0 +1,332 @@
+package com.mengdd.utils.android;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+
+import com.mengdd.utils.FileUtils;
+
+/**
+ * Bytes used by the files, cache and external cache directories of the
+ * application, kept as counters instead of walking the directories on
+ * every query.
+ * <p>
+ * The directories are sized once, in parallel, when accounting starts.
+ * After that the counters are updated from the size changes reported by
+ * {@link FileUtils}: streams from FileUtils.openOutputStream() when they are
+ * closed, FileUtils.copyFile() and the FileUtils delete methods. Files
+ * written some other way are picked up by the reconciliation, a walk of all
+ * directories at a long interval or on {@link #reconcile()}; a new
+ * {@link StorageLocations} snapshot is picked up the same way.
+ */
+public final class StorageUsage {
+
+    public static final long DEFAULT_RECONCILE_INTERVAL_MS = 60 * 60 * 1000;
+
+    /**
+     * Bytes used below one directory.
+     */
+    public static final class Usage {
+        private final File mDirectory;
+        private final String mPrefix;
+        private final AtomicLong mBytes = new AtomicLong();
+        private volatile boolean mReady;
+
+        Usage(File directory) {
+            mDirectory = directory;
+            mPrefix = directory.getAbsolutePath() + File.separatorChar;
+        }
+
+        public File getDirectory() {
+            return mDirectory;
+        }
+
+        /**
+         * @return the bytes used, -1 until the directory was sized
+         */
+        public long getUsedBytes() {
+            return mReady ? mBytes.get() : -1;
+        }
+
+        boolean contains(String path) {
+            return path.startsWith(mPrefix);
+        }
+
+        @Override
+        public String toString() {
+            return "Usage[" + mDirectory + " used=" + getUsedBytes() + "]";
+        }
+    }
+
+    private static final String LOG_TAG = "StorageUsage";
+
+    private static final Usage[] NO_USAGES = new Usage[0];
+
+    private static final Object LOCK = new Object();
+
+    // sizes the other directories while the accounting thread sizes the
+    // first; there are at most three, the threads exit when idle
+    private static final ThreadPoolExecutor WALKERS = createWalkers();
+
+    // guarded by LOCK
+    private static ScheduledExecutorService sExecutor;
+    private static ScheduledFuture<?> sTask;
+
+    // sUsages is read by the listener on any thread, both are written on the
+    // accounting thread only
+    private static volatile Usage[] sUsages = NO_USAGES;
+    private static StorageLocations sLocations;
+
+    private static final FileUtils.FileChangeListener LISTENER = new FileUtils.FileChangeListener() {
+        @Override
+        public void onFileChanged(File file, long oldLength, long newLength) {
+            Usage usage = find(file.getAbsolutePath());
+            if (usage != null) {
+                // counted before the directory is sized too, the sizing
+                // replaces the count
+                usage.mBytes.addAndGet(newLength - oldLength);
+            }
+        }
+    };
+
+    private static final Runnable RECONCILE = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                reconcileAll();
+            }
+            catch (RuntimeException e) {
+                // keep the schedule alive
+                LogUtils.e(LOG_TAG, "reconcile failed", e);
+            }
+        }
+    };
+
+    private StorageUsage() {
+    }
+
+    /**
+     * Size the directories in the background and keep the counters current
+     * from now on. Takes over the {@link FileUtils.FileChangeListener}.
+     *
+     * @param reconcileIntervalMs
+     *            time between walks of all directories
+     */
+    public static void start(Context context, long reconcileIntervalMs) {
+        StorageLocations.init(context);
+        synchronized (LOCK) {
+            if (sExecutor == null) {
+                sExecutor = new ScheduledThreadPoolExecutor(1,
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "StorageUsage");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+            }
+            if (sTask != null) {
+                sTask.cancel(false);
+            }
+            FileUtils.setFileChangeListener(LISTENER);
+            sTask = sExecutor.scheduleWithFixedDelay(RECONCILE, 0,
+                    reconcileIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static void start(Context context) {
+        start(context, DEFAULT_RECONCILE_INTERVAL_MS);
+    }
+
+    /**
+     * Stop counting, {@link #getUsages()} is empty afterwards. A
+     * {@link FileUtils.FileChangeListener} set after start() stays in place.
+     */
+    public static void stop() {
+        synchronized (LOCK) {
+            if (sTask != null) {
+                sTask.cancel(false);
+                sTask = null;
+            }
+            FileUtils.clearFileChangeListener(LISTENER);
+            if (sExecutor != null) {
+                // after a running reconciliation, which may set sUsages
+                sExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sUsages = NO_USAGES;
+                        sLocations = null;
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Walk all directories again in the background, for example after files
+     * were written without FileUtils. Does nothing if not started.
+     */
+    public static void reconcile() {
+        synchronized (LOCK) {
+            if (sExecutor != null && sTask != null) {
+                sExecutor.execute(RECONCILE);
+            }
+        }
+    }
+
+    /**
+     * @return the counted directories
+     */
+    public static List<Usage> getUsages() {
+        ArrayList<Usage> usages = new ArrayList<Usage>();
+        for (Usage usage : sUsages) {
+            usages.add(usage);
+        }
+        return usages;
+    }
+
+    /**
+     * @return bytes used below the counted directory containing the file,
+     *         -1 if there is none or it is not sized yet
+     */
+    public static long getUsedBytes(File file) {
+        String path = file.getAbsolutePath();
+        Usage usage = find(path + File.separatorChar);
+        return usage == null ? -1 : usage.getUsedBytes();
+    }
+
+    private static Usage find(String path) {
+        Usage found = null;
+        for (Usage usage : sUsages) {
+            if (usage.contains(path)
+                    && (found == null || usage.mPrefix.length() > found.mPrefix
+                            .length())) {
+                found = usage;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Runs on the accounting thread.
+     */
+    private static void reconcileAll() {
+        StorageLocations locations = StorageLocations.get();
+        if (locations != sLocations) {
+            sLocations = locations;
+            sUsages = createUsages(locations);
+        }
+        final Usage[] usages = sUsages;
+        final long[] sizes = new long[usages.length];
+        final long start = System.nanoTime();
+        final CountDownLatch done = new CountDownLatch(usages.length);
+        // walk the directories in parallel, the first one on this thread
+        for (int i = 1; i < usages.length; i++) {
+            final int index = i;
+            WALKERS.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sizes[index] = sizeOf(usages[index].mDirectory);
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        if (usages.length > 0) {
+            try {
+                sizes[0] = sizeOf(usages[0].mDirectory);
+            }
+            finally {
+                done.countDown();
+            }
+        }
+        try {
+            done.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (int i = 0; i < usages.length; i++) {
+            Usage usage = usages[i];
+            // changes reported during the walk may or may not be in the
+            // walked size, the next reconciliation corrects them
+            long drift = usage.mReady ? usage.mBytes.get() - sizes[i] : 0;
+            usage.mBytes.set(sizes[i]);
+            usage.mReady = true;
+            if (drift != 0) {
+                LogUtils.event(LOG_TAG).msg("usage drift")
+                        .kv("dir", usage.mDirectory).kv("bytes", drift).log();
+            }
+        }
+        LogUtils.event(LOG_TAG).msg("usage reconciled")
+                .kv("dirs", usages.length)
+                .kv("ms", (System.nanoTime() - start) / 1000000).log();
+    }
+
+    /**
+     * Like FileUtils.sizeOfDirectory(), but files and directories deleted
+     * during the walk count as 0 instead of failing the whole walk, as cache
+     * directories change all the time.
+     */
+    private static long sizeOf(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            // not a directory (any more) or not readable
+            return 0;
+        }
+        long size = 0;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                size += sizeOf(file);
+            }
+            else {
+                // 0 if it doesn't exist
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private static ThreadPoolExecutor createWalkers() {
+        ThreadPoolExecutor walkers = new ThreadPoolExecutor(2, 2, 30,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "StorageUsage-size");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        walkers.allowCoreThreadTimeOut(true);
+        return walkers;
+    }
+
+    private static Usage[] createUsages(StorageLocations locations) {
+        File[] dirs = new File[] { locations.getFilesDir(),
+                locations.getCacheDir(), locations.getExternalCacheDir() };
+        ArrayList<Usage> usages = new ArrayList<Usage>();
+        for (File dir : dirs) {
+            if (dir != null) {
+                usages.add(new Usage(dir));
+            }
+        }
+        return usages.toArray(new Usage[usages.size()]);
+    }
+}
@@ -0,0 +1,294 @@
+package com.mengdd.utils.android;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Detects blocking utility calls (network, directory walks, storage
+ * queries) made on latency-sensitive threads such as the main thread, in the
+ * spirit of StrictMode.
+ * <p>
+ * Instrumented methods bracket their work with {@link #begin(String)} and
+ * {@link #end(Violation)}. While no {@link Check} is installed begin() is a
+ * single volatile read returning null and end(null) returns at once. When a
+ * check flags the current thread, the call is reported to the
+ * {@link ViolationHandler} with its duration and call site; with
+ * {@link #setFailFast(boolean) fail fast}, for debug builds, begin() throws
+ * the {@link Violation} instead and the call is not made. Instrumented calls
+ * made by another one, such as the helpers a FileUtils method uses, are
+ * reported with the outermost call only.
+ *
+ * <pre>
+ * ThreadPolicy.Violation violation = ThreadPolicy.begin(&quot;sizeOfDirectory&quot;);
+ * try {
+ *     ...
+ * }
+ * finally {
+ *     ThreadPolicy.end(violation);
+ * }
+ * </pre>
+ */
+public final class ThreadPolicy {
+
+    /**
+     * Decides whether a thread is latency-sensitive. Called on every
+     * instrumented call while installed, keep it cheap.
+     */
+    public interface Check {
+        boolean isLatencySensitive(Thread thread);
+    }
+
+    /**
+     * Told about each blocking call on a latency-sensitive thread, on that
+     * thread, after the call returned.
+     */
+    public interface ViolationHandler {
+        void onViolation(Violation violation);
+    }
+
+    /**
+     * A blocking call on a latency-sensitive thread. The stack trace is the
+     * one of the call.
+     */
+    public static final class Violation extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final String mOperation;
+        private final String mThreadName;
+        private final long mStartNanos;
+        private final transient Policy mPolicy;
+        private long mDurationNanos = -1;
+
+        Violation(String operation, Thread thread, Policy policy) {
+            mOperation = operation;
+            mThreadName = thread.getName();
+            mPolicy = policy;
+            mStartNanos = System.nanoTime();
+        }
+
+        public String getOperation() {
+            return mOperation;
+        }
+
+        public String getThreadName() {
+            return mThreadName;
+        }
+
+        /**
+         * @return duration of the call, -1 if it was not made (fail fast)
+         */
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        /**
+         * @return the frame calling into the instrumented class, null if
+         *         unknown
+         */
+        public StackTraceElement getCallSite() {
+            StackTraceElement[] stack = getStackTrace();
+            // stack[0] is begin(), stack[1] the instrumented method
+            if (stack.length < 2) {
+                return null;
+            }
+            String instrumented = stack[1].getClassName();
+            for (int i = 2; i < stack.length; i++) {
+                if (!stack[i].getClassName().equals(instrumented)) {
+                    return stack[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String getMessage() {
+            return mOperation + " on latency-sensitive thread " + mThreadName
+                    + (mDurationNanos < 0 ? "" : " took "
+                            + mDurationNanos / 1000000 + "ms");
+        }
+    }
+
+    /**
+     * Flags the main thread.
+     */
+    public static final Check MAIN_THREAD = new Check() {
+        @Override
+        public boolean isLatencySensitive(Thread thread) {
+            Looper main = Looper.getMainLooper();
+            return main != null && main.getThread() == thread;
+        }
+    };
+
+    /**
+     * Logs a warning event per violation, kept when debug logging is off.
+     */
+    public static final ViolationHandler LOG_HANDLER = new ViolationHandler() {
+        @Override
+        public void onViolation(Violation violation) {
+            LogUtils.event(Log.WARN, LOG_TAG).msg("blocking call")
+                    .kv("op", violation.getOperation())
+                    .kv("thread", violation.getThreadName())
+                    .kv("ms", violation.getDurationNanos() / 1000000)
+                    .kv("at", violation.getCallSite()).log();
+        }
+    };
+
+    private static final String LOG_TAG = "ThreadPolicy";
+
+    /**
+     * Immutable installed state, replaced on every change.
+     */
+    private static final class Policy {
+        final Check[] checks;
+        final ViolationHandler handler;
+        final boolean failFast;
+
+        Policy(Check[] checks, ViolationHandler handler, boolean failFast) {
+            this.checks = checks;
+            this.handler = handler;
+            this.failFast = failFast;
+        }
+    }
+
+    private static final Object LOCK = new Object();
+
+    // guarded by LOCK
+    private static final ArrayList<Check> CHECKS = new ArrayList<Check>();
+    private static ViolationHandler sHandler = LOG_HANDLER;
+    private static boolean sFailFast;
+
+    // null while no check is installed
+    private static volatile Policy sPolicy;
+
+    // outermost reported call in progress, only set on flagged threads
+    private static final ThreadLocal<Violation> ACTIVE = new ThreadLocal<Violation>();
+
+    private ThreadPolicy() {
+    }
+
+    /**
+     * @return a check flagging the thread, held weakly
+     */
+    public static Check forThread(Thread thread) {
+        final WeakReference<Thread> ref = new WeakReference<Thread>(thread);
+        return new Check() {
+            @Override
+            public boolean isLatencySensitive(Thread thread) {
+                return ref.get() == thread;
+            }
+        };
+    }
+
+    public static void addCheck(Check check) {
+        synchronized (LOCK) {
+            CHECKS.add(check);
+            update();
+        }
+    }
+
+    public static void removeCheck(Check check) {
+        synchronized (LOCK) {
+            CHECKS.remove(check);
+            update();
+        }
+    }
+
+    /**
+     * @param handler
+     *            null for {@link #LOG_HANDLER}
+     */
+    public static void setViolationHandler(ViolationHandler handler) {
+        synchronized (LOCK) {
+            sHandler = handler == null ? LOG_HANDLER : handler;
+            update();
+        }
+    }
+
+    /**
+     * Throw the {@link Violation} from {@link #begin(String)} instead of
+     * reporting it, meant for debug builds.
+     */
+    public static void setFailFast(boolean failFast) {
+        synchronized (LOCK) {
+            sFailFast = failFast;
+            update();
+        }
+    }
+
+    /**
+     * Remove all checks, the handler and fail fast.
+     */
+    public static void reset() {
+        synchronized (LOCK) {
+            CHECKS.clear();
+            sHandler = LOG_HANDLER;
+            sFailFast = false;
+            update();
+        }
+    }
+
+    /**
+     * Called with LOCK held.
+     */
+    private static void update() {
+        sPolicy = CHECKS.isEmpty() ? null : new Policy(
+                CHECKS.toArray(new Check[CHECKS.size()]), sHandler, sFailFast);
+    }
+
+    /**
+     * Start a blocking operation.
+     *
+     * @param operation
+     *            name of the operation for the report
+     * @return the violation to pass to {@link #end(Violation)}, null if the
+     *         thread is not latency-sensitive or the call is nested in one
+     *         already reported
+     * @throws Violation
+     *             if the thread is latency-sensitive and fail fast is set
+     */
+    public static Violation begin(String operation) {
+        Policy policy = sPolicy;
+        if (policy == null) {
+            return null;
+        }
+        Thread thread = Thread.currentThread();
+        for (Check check : policy.checks) {
+            if (check.isLatencySensitive(thread)) {
+                if (ACTIVE.get() != null) {
+                    // part of a call already being reported
+                    return null;
+                }
+                Violation violation = new Violation(operation, thread, policy);
+                if (policy.failFast) {
+                    throw violation;
+                }
+                ACTIVE.set(violation);
+                return violation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * End a blocking operation and report it if it was a violation.
+     *
+     * @param violation
+     *            returned by {@link #begin(String)}, may be null
+     */
+    public static void end(Violation violation) {
+        if (violation == null) {
+            return;
+        }
+        ACTIVE.remove();
+        violation.mDurationNanos = System.nanoTime() - violation.mStartNanos;
+        try {
+            violation.mPolicy.handler.onViolation(violation);
+        }
+        catch (RuntimeException e) {
+            LogUtils.e(LOG_TAG, "ViolationHandler failed", e);
+        }
+    }
+}
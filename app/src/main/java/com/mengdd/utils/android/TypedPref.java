@@ -0,0 +1,195 @@
+package com.mengdd.utils.android;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+
+/**
+ * Declaration of one preference: file, name, type and default value. The
+ * typed accessors replace a hand written getter and setter pair per key.
+ * <p>
+ * Every declaration gets an integer slot when it is created. A
+ * {@link PrefStore} keeps the decoded values of the declared keys in an
+ * array indexed by the slot, so a read after the first one is an array
+ * access instead of a lookup by key, and values stored as strings through a
+ * {@link Codec} are decoded once per change. Declare keys once, as static
+ * final fields.
+ */
+public final class TypedPref<T> {
+
+    /**
+     * Converts values of a type SharedPreferences can't store to and from a
+     * string.
+     */
+    public interface Codec<T> {
+        T decode(String stored);
+
+        String encode(T value);
+    }
+
+    private static final AtomicInteger NEXT_SLOT = new AtomicInteger();
+
+    private final String mFile;
+    private final String mName;
+    private final Class<T> mType;
+    private final T mDefault;
+    private final int mStorageType;
+    private final Codec<T> mCodec;
+    private final int mSlot;
+
+    private TypedPref(String file, String name, Class<T> type, T defValue,
+            int storageType, Codec<T> codec) {
+        if (name == null) {
+            throw new IllegalArgumentException("name == null");
+        }
+        mFile = file;
+        mName = name;
+        mType = type;
+        mDefault = defValue;
+        mStorageType = storageType;
+        mCodec = codec;
+        mSlot = NEXT_SLOT.getAndIncrement();
+    }
+
+    /**
+     * @param file
+     *            preferences file name, null for the default file
+     */
+    public static TypedPref<String> ofString(String file, String name,
+            String defValue) {
+        return new TypedPref<String>(file, name, String.class, defValue,
+                PrefStore.TYPE_STRING, null);
+    }
+
+    public static TypedPref<Boolean> ofBoolean(String file, String name,
+            boolean defValue) {
+        return new TypedPref<Boolean>(file, name, Boolean.class, defValue,
+                PrefStore.TYPE_BOOLEAN, null);
+    }
+
+    public static TypedPref<Integer> ofInt(String file, String name,
+            int defValue) {
+        return new TypedPref<Integer>(file, name, Integer.class, defValue,
+                PrefStore.TYPE_INT, null);
+    }
+
+    public static TypedPref<Long> ofLong(String file, String name,
+            long defValue) {
+        return new TypedPref<Long>(file, name, Long.class, defValue,
+                PrefStore.TYPE_LONG, null);
+    }
+
+    public static TypedPref<Float> ofFloat(String file, String name,
+            float defValue) {
+        return new TypedPref<Float>(file, name, Float.class, defValue,
+                PrefStore.TYPE_FLOAT, null);
+    }
+
+    /**
+     * A value stored as a string and converted by the codec.
+     */
+    public static <T> TypedPref<T> of(String file, String name, Class<T> type,
+            T defValue, Codec<T> codec) {
+        return new TypedPref<T>(file, name, type, defValue,
+                PrefStore.TYPE_STRING, codec);
+    }
+
+    /**
+     * An enum stored by constant name. A stored name that is no longer a
+     * constant reads as the default.
+     */
+    public static <E extends Enum<E>> TypedPref<E> ofEnum(String file,
+            String name, final Class<E> type, E defValue) {
+        return of(file, name, type, defValue, new Codec<E>() {
+            @Override
+            public E decode(String stored) {
+                try {
+                    return Enum.valueOf(type, stored);
+                }
+                catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            public String encode(E value) {
+                return value.name();
+            }
+        });
+    }
+
+    public PrefStore getStore(Context context) {
+        return mFile == null ? PrefStore.getDefault(context) : PrefStore.get(
+                context, mFile);
+    }
+
+    public T get(Context context) {
+        return getStore(context).get(this);
+    }
+
+    /**
+     * @param value
+     *            null removes the key
+     */
+    public void set(Context context, T value) {
+        getStore(context).set(this, value);
+    }
+
+    public void remove(Context context) {
+        getStore(context).remove(mName);
+    }
+
+    /**
+     * See {@link PrefStore#subscribe(String, PrefStore.KeyListener)}.
+     */
+    public void subscribe(Context context, PrefStore.KeyListener listener) {
+        getStore(context).subscribe(mName, listener);
+    }
+
+    /**
+     * @return file name, null for the default file
+     */
+    public String getFile() {
+        return mFile;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Class<T> getType() {
+        return mType;
+    }
+
+    public T getDefault() {
+        return mDefault;
+    }
+
+    int getSlot() {
+        return mSlot;
+    }
+
+    int getStorageType() {
+        return mStorageType;
+    }
+
+    /**
+     * @return the value, null if the codec can't decode it
+     */
+    T decode(Object stored) {
+        if (mCodec == null) {
+            return mType.cast(stored);
+        }
+        return mCodec.decode((String) stored);
+    }
+
+    Object encode(T value) {
+        return mCodec == null ? value : mCodec.encode(value);
+    }
+
+    @Override
+    public String toString() {
+        return "TypedPref[" + (mFile == null ? "" : mFile + ":") + mName
+                + "]";
+    }
+}
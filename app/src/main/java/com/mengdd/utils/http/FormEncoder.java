@@ -0,0 +1,324 @@
+package com.mengdd.utils.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+
+import com.mengdd.utils.reflect.FieldAccessor;
+import com.mengdd.utils.reflect.FieldType;
+import com.mengdd.utils.reflect.ReflectCache;
+
+/**
+ * Encodes maps and plain objects as application/x-www-form-urlencoded UTF-8
+ * bytes, written directly into a reusable per thread buffer.
+ * <p>
+ * An object is encoded as its instance fields, including those of its super
+ * classes, with the field name as parameter name. Static, transient and null
+ * fields are left out. The fields of each class are resolved once into a
+ * schema holding the field accessors and the already encoded "name="
+ * prefixes; primitive values are written without boxing or formatting to a
+ * String.
+ */
+public final class FormEncoder {
+
+    private static final Object SCHEMA_KEY = new Object();
+
+    /** Buffers grown past this are not kept for reuse. */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6',
+            '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+    /** Characters URLEncoder leaves as they are. */
+    private static final boolean[] UNRESERVED = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['.'] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['*'] = true;
+        UNRESERVED['_'] = true;
+    }
+
+    private static final ThreadLocal<Buffer> BUFFER = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
+    private FormEncoder() {
+    }
+
+    /**
+     * @param form
+     * @return the encoded fields of the object
+     */
+    public static byte[] encode(Object form) {
+        return encodeToBuffer(form).toByteArray();
+    }
+
+    /**
+     * @param params
+     *            entries with a null value are left out
+     * @return the encoded parameters
+     */
+    public static byte[] encode(Map<String, String> params) {
+        return encodeToBuffer(params).toByteArray();
+    }
+
+    /**
+     * Encode into the calling thread's buffer, valid until the next call on
+     * the same thread.
+     */
+    static Buffer encodeToBuffer(Object form) {
+        Buffer buffer = obtainBuffer();
+        if (form != null) {
+            Schema schema = getSchema(form.getClass());
+            for (int i = 0; i < schema.fields.length; i++) {
+                schema.write(buffer, i, form);
+            }
+        }
+        return buffer;
+    }
+
+    static Buffer encodeToBuffer(Map<String, String> params) {
+        Buffer buffer = obtainBuffer();
+        if (params != null) {
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                if (buffer.length > 0) {
+                    buffer.write('&');
+                }
+                writeEncoded(buffer, entry.getKey());
+                buffer.write('=');
+                writeEncoded(buffer, entry.getValue());
+            }
+        }
+        return buffer;
+    }
+
+    private static Buffer obtainBuffer() {
+        Buffer buffer = BUFFER.get();
+        if (buffer.data.length > MAX_RETAINED_CAPACITY) {
+            buffer = new Buffer();
+            BUFFER.set(buffer);
+        }
+        buffer.length = 0;
+        return buffer;
+    }
+
+    private static Schema getSchema(Class<?> cls) {
+        Schema schema = (Schema) ReflectCache.getClassValue(cls, SCHEMA_KEY);
+        if (schema == null) {
+            schema = (Schema) ReflectCache.putClassValue(cls, SCHEMA_KEY,
+                    new Schema(cls));
+        }
+        return schema;
+    }
+
+    /**
+     * URL encode the UTF-8 bytes of the string, like
+     * {@link java.net.URLEncoder#encode(String, String)}.
+     */
+    static void writeEncoded(Buffer buffer, String s) {
+        int length = s.length();
+        buffer.ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (UNRESERVED[c]) {
+                    buffer.write(c);
+                }
+                else if (c == ' ') {
+                    buffer.write('+');
+                }
+                else {
+                    writeEscaped(buffer, c);
+                }
+            }
+            else if (c < 0x800) {
+                writeEscaped(buffer, 0xc0 | (c >> 6));
+                writeEscaped(buffer, 0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                writeEscaped(buffer, 0xf0 | (codePoint >> 18));
+                writeEscaped(buffer, 0x80 | ((codePoint >> 12) & 0x3f));
+                writeEscaped(buffer, 0x80 | ((codePoint >> 6) & 0x3f));
+                writeEscaped(buffer, 0x80 | (codePoint & 0x3f));
+            }
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogate, encoded as '?' like String.getBytes
+                writeEscaped(buffer, '?');
+            }
+            else {
+                writeEscaped(buffer, 0xe0 | (c >> 12));
+                writeEscaped(buffer, 0x80 | ((c >> 6) & 0x3f));
+                writeEscaped(buffer, 0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private static void writeEscaped(Buffer buffer, int b) {
+        buffer.write('%');
+        buffer.write(HEX[(b >> 4) & 0xf]);
+        buffer.write(HEX[b & 0xf]);
+    }
+
+    private static void writeLong(Buffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            writeEncoded(buffer, String.valueOf(value));
+            return;
+        }
+        if (value < 0) {
+            buffer.write('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        buffer.ensureCapacity(digits);
+        int end = buffer.length + digits;
+        for (int i = end - 1; i >= buffer.length; i--) {
+            buffer.data[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        buffer.length = end;
+    }
+
+    /**
+     * Growable byte array, exposed to HttpUtilsJDK so the body can be written
+     * without copying it.
+     */
+    static final class Buffer {
+        byte[] data = new byte[256];
+        int length;
+
+        void write(int b) {
+            if (length == data.length) {
+                ensureCapacity(1);
+            }
+            data[length++] = (byte) b;
+        }
+
+        void write(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, data, length, bytes.length);
+            length += bytes.length;
+        }
+
+        void ensureCapacity(int extra) {
+            if (length + extra > data.length) {
+                byte[] grown = new byte[Math.max(data.length * 2, length
+                        + extra)];
+                System.arraycopy(data, 0, grown, 0, length);
+                data = grown;
+            }
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(data, 0, length);
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[length];
+            System.arraycopy(data, 0, bytes, 0, length);
+            return bytes;
+        }
+    }
+
+    private static final class Schema {
+        final FieldAccessor[] fields;
+        final int[] types;
+        /** encoded "name=" of each field */
+        final byte[][] names;
+
+        Schema(Class<?> cls) {
+            List<FieldAccessor> all = FieldAccessor.ofInstanceFields(cls);
+            int count = 0;
+            for (FieldAccessor accessor : all) {
+                if (!Modifier.isTransient(accessor.getField().getModifiers())) {
+                    count++;
+                }
+            }
+            fields = new FieldAccessor[count];
+            types = new int[count];
+            names = new byte[count][];
+            Buffer buffer = new Buffer();
+            int i = 0;
+            for (FieldAccessor accessor : all) {
+                if (Modifier.isTransient(accessor.getField().getModifiers())) {
+                    continue;
+                }
+                fields[i] = accessor;
+                types[i] = FieldType.of(accessor.getType());
+                buffer.length = 0;
+                writeEncoded(buffer, accessor.getName());
+                buffer.write('=');
+                names[i] = buffer.toByteArray();
+                i++;
+            }
+        }
+
+        void write(Buffer buffer, int i, Object form) {
+            FieldAccessor field = fields[i];
+            Object value = null;
+            if (types[i] == FieldType.OBJECT) {
+                value = field.get(form);
+                if (value == null) {
+                    return;
+                }
+            }
+            if (buffer.length > 0) {
+                buffer.write('&');
+            }
+            buffer.write(names[i]);
+            switch (types[i]) {
+            case FieldType.INT:
+                writeLong(buffer, field.getInt(form));
+                break;
+            case FieldType.LONG:
+                writeLong(buffer, field.getLong(form));
+                break;
+            case FieldType.SHORT:
+                writeLong(buffer, field.getShort(form));
+                break;
+            case FieldType.BYTE:
+                writeLong(buffer, field.getByte(form));
+                break;
+            case FieldType.BOOLEAN:
+                buffer.write(field.getBoolean(form) ? TRUE : FALSE);
+                break;
+            case FieldType.CHAR:
+                writeEncoded(buffer, String.valueOf(field.getChar(form)));
+                break;
+            case FieldType.FLOAT:
+                writeEncoded(buffer, String.valueOf(field.getFloat(form)));
+                break;
+            case FieldType.DOUBLE:
+                writeEncoded(buffer, String.valueOf(field.getDouble(form)));
+                break;
+            default:
+                writeEncoded(buffer, value instanceof Enum ? ((Enum<?>) value)
+                        .name() : value.toString());
+                break;
+            }
+        }
+    }
+}
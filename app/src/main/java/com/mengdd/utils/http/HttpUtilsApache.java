@@ -25,6 +25,8 @@ import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 
+import com.mengdd.utils.android.ThreadPolicy;
+
 import android.util.Log;
 
 public class HttpUtilsApache {
@@ -60,6 +62,7 @@ public class HttpUtilsApache {
     }
 
     public static String performGetRequest(String url) {
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("HTTP GET");
 
         String result = null;
         // 生成一个请求对象
@@ -97,13 +100,14 @@ public class HttpUtilsApache {
             e.printStackTrace();
         }
         finally {
-
+            ThreadPolicy.end(violation);
         }
 
         return result;
     }
 
     public static String performPostRequest(String baseURL, String postData) {
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("HTTP POST");
         String result = "";
         HttpResponse response = null;
         try {
@@ -139,7 +143,7 @@ public class HttpUtilsApache {
             e.printStackTrace();
         }
         finally {
-
+            ThreadPolicy.end(violation);
         }
 
         return result;
@@ -11,6 +11,8 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.util.Map;
 
+import com.mengdd.utils.android.ThreadPolicy;
+
 import android.util.Log;
 
 public class HttpUtilsJDK {
@@ -20,7 +22,8 @@ public class HttpUtilsJDK {
     private static final String HEADER_CONTENT_LENGTH = "Content-Length";
     /**
      * Default encoding for POST or PUT parameters. See
-     * {@link #getParamsEncoding()}.
+     * {@link #getParamsEncoding()}. {@link FormEncoder} always encodes
+     * UTF-8.
      */
     private static final String DEFAULT_PARAMS_ENCODING = "UTF-8";
 
@@ -34,6 +37,7 @@ public class HttpUtilsJDK {
     }
 
     public static String performGetRequest(String baseUrl) {
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("HTTP GET");
         String result = null;
         HttpURLConnection connection = null;
         try {
@@ -72,6 +76,7 @@ public class HttpUtilsJDK {
             e.printStackTrace();
         }
         finally {
+            ThreadPolicy.end(violation);
             connection.disconnect();
         }
 
@@ -80,6 +85,33 @@ public class HttpUtilsJDK {
 
     public static String performPostRequest(String baseUrl,
             Map<String, String> params) {
+        byte[] data = getParamsData(params);
+        return performPostRequest(baseUrl, data, data == null ? 0
+                : data.length);
+    }
+
+    /**
+     * POST the fields of an object as form parameters, see
+     * {@link FormEncoder}.
+     *
+     * @param baseUrl
+     * @param form
+     * @return
+     */
+    public static String performFormPostRequest(String baseUrl, Object form) {
+        // the buffer is the calling thread's, written before it can be
+        // reused
+        FormEncoder.Buffer buffer = FormEncoder.encodeToBuffer(form);
+        return performPostRequest(baseUrl, buffer.data, buffer.length);
+    }
+
+    /**
+     * @param data
+     *            the request body is data[0, length), none if null
+     */
+    private static String performPostRequest(String baseUrl, byte[] data,
+            int length) {
+        ThreadPolicy.Violation violation = ThreadPolicy.begin("HTTP POST");
         String result = null;
         HttpURLConnection connection = null;
         try {
@@ -99,16 +131,14 @@ public class HttpUtilsJDK {
                 // setChunkedStreamingMode(int)
                 // connection.setChunkedStreamingMode(0);// 参数为0时使用默认值
 
-                byte[] data = getParamsData(params);
-
                 connection.setRequestProperty(HEADER_CONTENT_TYPE,
                         getBodyContentType());
                 if (null != data) {
-                    connection.setFixedLengthStreamingMode(data.length);
+                    connection.setFixedLengthStreamingMode(length);
                     connection.setRequestProperty(HEADER_CONTENT_LENGTH,
-                            String.valueOf(data.length));
+                            String.valueOf(length));
                     OutputStream outputStream = connection.getOutputStream();
-                    outputStream.write(data);
+                    outputStream.write(data, 0, length);
                 }
 
                 // 得到返回值
@@ -133,6 +163,7 @@ public class HttpUtilsJDK {
             e.printStackTrace();
         }
         finally {
+            ThreadPolicy.end(violation);
             connection.disconnect();
         }
 
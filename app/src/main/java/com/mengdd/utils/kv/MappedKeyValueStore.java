@@ -0,0 +1,561 @@
+package com.mengdd.utils.kv;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * Key-value store kept in an append-only, memory mapped file, with all
+ * values held in an in-memory hash index.
+ * <p>
+ * Values are String, Boolean, Integer, Long or Float. Reads are a lookup in
+ * the index. A write appends one record to the mapped file, without a
+ * system call; a batch of writes is one record, so it is applied entirely
+ * or not at all. Every record carries a CRC32, and a torn or corrupted
+ * record at the end of the file is dropped with everything after it when
+ * the file is opened. Once the file holds mostly overwritten values it is
+ * compacted on a background thread into a new file that replaces it.
+ * <p>
+ * Appended records survive a crash of the process; {@link #sync()} also
+ * forces them to the storage device. The file must only be opened by one
+ * store, in one process, at a time.
+ *
+ * <pre>
+ * file:    "MKV1" record*
+ * record:  int payloadLength, int crc32(payload), payload
+ * payload: int count, entry*
+ * entry:   byte type, int keyLength, key UTF-8, value
+ * </pre>
+ */
+public final class MappedKeyValueStore implements Closeable {
+
+    private static final byte[] MAGIC = { 'M', 'K', 'V', '1' };
+    private static final int RECORD_HEADER = 8;
+
+    private static final byte TYPE_REMOVE = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_BOOLEAN = 2;
+    private static final byte TYPE_INT = 3;
+    private static final byte TYPE_LONG = 4;
+    private static final byte TYPE_FLOAT = 5;
+
+    private static final int PAGE_SIZE = 4096;
+    /** Files smaller than this are never compacted. */
+    private static final int MIN_COMPACT_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Executor COMPACTOR = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "MappedKeyValueStore-compact");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    private final File mFile;
+    private final ConcurrentHashMap<String, Object> mValues = new ConcurrentHashMap<String, Object>();
+
+    // guarded by this
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+    private int mWriteOffset;
+    // encoded size of the latest entry of every key, to tell when to compact
+    private final HashMap<String, Integer> mEntrySizes = new HashMap<String, Integer>();
+    private long mLiveBytes;
+    private boolean mCompactScheduled;
+    private boolean mClosed;
+
+    private final Runnable mCompactTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                compact();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    };
+
+    private MappedKeyValueStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Open the store, creating the file if needed.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     *             if the file cannot be read or mapped, or is not a store
+     */
+    public static MappedKeyValueStore open(File file) throws IOException {
+        MappedKeyValueStore store = new MappedKeyValueStore(file);
+        synchronized (store) {
+            store.load(false);
+        }
+        return store;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    /**
+     * @return the value, or null if absent
+     */
+    public Object get(String key) {
+        return mValues.get(key);
+    }
+
+    public String getString(String key, String defValue) {
+        Object value = mValues.get(key);
+        return value == null ? defValue : (String) value;
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = mValues.get(key);
+        return value == null ? defValue : (Boolean) value;
+    }
+
+    public int getInt(String key, int defValue) {
+        Object value = mValues.get(key);
+        return value == null ? defValue : (Integer) value;
+    }
+
+    public long getLong(String key, long defValue) {
+        Object value = mValues.get(key);
+        return value == null ? defValue : (Long) value;
+    }
+
+    public float getFloat(String key, float defValue) {
+        Object value = mValues.get(key);
+        return value == null ? defValue : (Float) value;
+    }
+
+    /**
+     * @return a snapshot of all values
+     */
+    public Map<String, Object> getAll() {
+        return Collections.unmodifiableMap(new HashMap<String, Object>(mValues));
+    }
+
+    public int size() {
+        return mValues.size();
+    }
+
+    /**
+     * @param value
+     *            null removes the key
+     * @throws IOException
+     */
+    public void put(String key, Object value) throws IOException {
+        write(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * Apply the writes as one record.
+     *
+     * @param writes
+     *            key to new value, a null value removes the key
+     * @throws IOException
+     *             if the file cannot be grown
+     * @throws IllegalArgumentException
+     *             for an unsupported value type
+     */
+    public synchronized void write(Map<String, ?> writes) throws IOException {
+        if (writes.isEmpty()) {
+            return;
+        }
+        checkOpen();
+        Payload payload = new Payload(writes.size());
+        int[] sizes = new int[writes.size()];
+        int i = 0;
+        for (Map.Entry<String, ?> entry : writes.entrySet()) {
+            int start = payload.length;
+            payload.writeEntry(entry.getKey(), entry.getValue());
+            sizes[i++] = payload.length - start;
+        }
+
+        append(payload);
+
+        i = 0;
+        for (Map.Entry<String, ?> entry : writes.entrySet()) {
+            apply(entry.getKey(), entry.getValue(), sizes[i++], false);
+        }
+        scheduleCompactIfNeeded();
+    }
+
+    /**
+     * Force the appended records to the storage device.
+     *
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        mBuffer.force();
+    }
+
+    /**
+     * Rewrite the file with only the current values. Normally done on a
+     * background thread when enough of the file is garbage.
+     *
+     * @throws IOException
+     *             if the file cannot be rewritten; the store is closed if
+     *             it cannot be mapped again afterwards
+     */
+    public synchronized void compact() throws IOException {
+        mCompactScheduled = false;
+        if (mClosed) {
+            return;
+        }
+        Payload payload = new Payload(mValues.size());
+        for (Map.Entry<String, Object> entry : mValues.entrySet()) {
+            payload.writeEntry(entry.getKey(), entry.getValue());
+        }
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(MAGIC);
+            if (!mValues.isEmpty()) {
+                out.write(payload.header());
+                out.write(payload.data, 0, payload.length);
+            }
+            out.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+
+        mBuffer.force();
+        closeFile();
+        // the old and the compacted file both hold exactly mValues, readers
+        // don't take the lock and keep seeing it while the file is reloaded
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            reload();
+            throw new IOException("Cannot replace " + mFile);
+        }
+        reload();
+    }
+
+    /**
+     * Map the file again after compaction. If that fails the store is
+     * closed: the values stay readable, writes throw IOException.
+     */
+    private void reload() throws IOException {
+        boolean loaded = false;
+        try {
+            load(true);
+            loaded = true;
+        }
+        finally {
+            if (!loaded) {
+                mClosed = true;
+                try {
+                    closeFile();
+                }
+                catch (IOException e) {
+                    // already failing
+                }
+            }
+        }
+    }
+
+    /**
+     * @return bytes of the file in use, including overwritten records
+     */
+    public synchronized int getUsedBytes() {
+        return mWriteOffset;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!mClosed) {
+            mClosed = true;
+            mBuffer.force();
+            closeFile();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Store is closed: " + mFile);
+        }
+    }
+
+    /**
+     * Map the file and rebuild the index from its valid records.
+     *
+     * @param keepValues
+     *            only rebuild the entry sizes, the file holds the values
+     *            already in mValues
+     */
+    private void load(boolean keepValues) throws IOException {
+        if (!keepValues) {
+            mValues.clear();
+        }
+        mEntrySizes.clear();
+        mLiveBytes = 0;
+
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mChannel = mRaf.getChannel();
+        long length = mRaf.length();
+        if (length > Integer.MAX_VALUE) {
+            closeFile();
+            throw new IOException("File too large: " + mFile);
+        }
+        map(Math.max(roundToPage((int) length), PAGE_SIZE));
+
+        if (length == 0) {
+            mBuffer.put(MAGIC);
+            mWriteOffset = MAGIC.length;
+            return;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (mBuffer.get(i) != MAGIC[i]) {
+                closeFile();
+                throw new IOException("Not a key value store: " + mFile);
+            }
+        }
+
+        int offset = MAGIC.length;
+        int limit = mBuffer.capacity();
+        CRC32 crc = new CRC32();
+        while (offset + RECORD_HEADER <= limit) {
+            int length0 = mBuffer.getInt(offset);
+            int checksum = mBuffer.getInt(offset + 4);
+            if (length0 <= 0 || length0 > limit - offset - RECORD_HEADER) {
+                break;
+            }
+            byte[] data = new byte[length0];
+            mBuffer.position(offset + RECORD_HEADER);
+            mBuffer.get(data);
+            crc.reset();
+            crc.update(data, 0, length0);
+            if ((int) crc.getValue() != checksum) {
+                // torn write or corruption, the rest of the file is unusable
+                break;
+            }
+            replay(data, keepValues);
+            offset += RECORD_HEADER + length0;
+        }
+        mWriteOffset = offset;
+    }
+
+    private void replay(byte[] data, boolean keepValues) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            int start = in.position();
+            byte type = in.get();
+            byte[] keyBytes = new byte[in.getInt()];
+            in.get(keyBytes);
+            String key = new String(keyBytes, UTF_8);
+            Object value;
+            switch (type) {
+            case TYPE_STRING:
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                value = new String(bytes, UTF_8);
+                break;
+            case TYPE_BOOLEAN:
+                value = in.get() != 0;
+                break;
+            case TYPE_INT:
+                value = in.getInt();
+                break;
+            case TYPE_LONG:
+                value = in.getLong();
+                break;
+            case TYPE_FLOAT:
+                value = in.getFloat();
+                break;
+            default:
+                value = null;
+                break;
+            }
+            apply(key, value, in.position() - start, keepValues);
+        }
+    }
+
+    private void apply(String key, Object value, int entrySize,
+            boolean keepValues) {
+        Integer previous;
+        if (value == null) {
+            if (!keepValues) {
+                mValues.remove(key);
+            }
+            previous = mEntrySizes.remove(key);
+        }
+        else {
+            if (!keepValues) {
+                mValues.put(key, value);
+            }
+            previous = mEntrySizes.put(key, entrySize);
+            mLiveBytes += entrySize;
+        }
+        if (previous != null) {
+            mLiveBytes -= previous;
+        }
+    }
+
+    private void append(Payload payload) throws IOException {
+        int needed = mWriteOffset + RECORD_HEADER + payload.length;
+        if (needed > mBuffer.capacity()) {
+            map(roundToPage(Math.max(needed, mBuffer.capacity() * 2)));
+        }
+        // payload first, so a crash before the header leaves no valid record
+        mBuffer.position(mWriteOffset + RECORD_HEADER);
+        mBuffer.put(payload.data, 0, payload.length);
+        mBuffer.position(mWriteOffset);
+        mBuffer.put(payload.header());
+        mWriteOffset = needed;
+    }
+
+    private void map(int capacity) throws IOException {
+        if (mRaf.length() < capacity) {
+            mRaf.setLength(capacity);
+        }
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void closeFile() throws IOException {
+        // the mapping itself stays valid until the buffer is collected
+        mChannel = null;
+        mBuffer = null;
+        RandomAccessFile raf = mRaf;
+        mRaf = null;
+        if (raf != null) {
+            raf.close();
+        }
+    }
+
+    private void scheduleCompactIfNeeded() {
+        if (!mCompactScheduled && mWriteOffset > MIN_COMPACT_SIZE
+                && mWriteOffset > 2 * (mLiveBytes + RECORD_HEADER + 4)) {
+            mCompactScheduled = true;
+            COMPACTOR.execute(mCompactTask);
+        }
+    }
+
+    private static int roundToPage(int size) {
+        return (size + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    /**
+     * Encoded entries of one record.
+     */
+    private static final class Payload {
+        byte[] data = new byte[256];
+        int length = 4;
+
+        Payload(int count) {
+            ByteBuffer.wrap(data).putInt(0, count);
+        }
+
+        void writeEntry(String key, Object value) {
+            byte[] keyBytes = key.getBytes(UTF_8);
+            byte type;
+            byte[] stringBytes = null;
+            int valueSize;
+            if (value == null) {
+                type = TYPE_REMOVE;
+                valueSize = 0;
+            }
+            else if (value instanceof String) {
+                type = TYPE_STRING;
+                stringBytes = ((String) value).getBytes(UTF_8);
+                valueSize = 4 + stringBytes.length;
+            }
+            else if (value instanceof Boolean) {
+                type = TYPE_BOOLEAN;
+                valueSize = 1;
+            }
+            else if (value instanceof Integer) {
+                type = TYPE_INT;
+                valueSize = 4;
+            }
+            else if (value instanceof Long) {
+                type = TYPE_LONG;
+                valueSize = 8;
+            }
+            else if (value instanceof Float) {
+                type = TYPE_FLOAT;
+                valueSize = 4;
+            }
+            else {
+                throw new IllegalArgumentException("Unsupported value type "
+                        + value.getClass().getName() + " for " + key);
+            }
+
+            ensureCapacity(1 + 4 + keyBytes.length + valueSize);
+            ByteBuffer out = ByteBuffer.wrap(data);
+            out.position(length);
+            out.put(type);
+            out.putInt(keyBytes.length);
+            out.put(keyBytes);
+            switch (type) {
+            case TYPE_STRING:
+                out.putInt(stringBytes.length);
+                out.put(stringBytes);
+                break;
+            case TYPE_BOOLEAN:
+                out.put((byte) (((Boolean) value) ? 1 : 0));
+                break;
+            case TYPE_INT:
+                out.putInt((Integer) value);
+                break;
+            case TYPE_LONG:
+                out.putLong((Long) value);
+                break;
+            case TYPE_FLOAT:
+                out.putFloat((Float) value);
+                break;
+            default:
+                break;
+            }
+            length = out.position();
+        }
+
+        byte[] header() {
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            return ByteBuffer.allocate(RECORD_HEADER).putInt(length)
+                    .putInt((int) crc.getValue()).array();
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > data.length) {
+                byte[] grown = new byte[Math.max(data.length * 2, length
+                        + extra)];
+                System.arraycopy(data, 0, grown, 0, length);
+                data = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.mengdd.utils.log;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands events to a background thread which writes them to another sink, so
+ * the calling thread never waits for I/O. When the queue is full new events
+ * are dropped and counted, see {@link #getDroppedCount()}; so are events the
+ * delegate fails to write.
+ * <p>
+ * Templates are passed on to the delegate with their arguments. Arguments
+ * other than strings, boxed primitives and null are converted to strings
+ * when queued, as they may change or not be thread safe.
+ */
+public class AsyncLogSink implements LogSink {
+
+    private static final long FLUSH_TIMEOUT_MS = 5 * 1000;
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final LogSink mDelegate;
+    private final BlockingQueue<Entry> mQueue;
+    private final AtomicLong mDropped = new AtomicLong();
+    private final Thread mThread;
+    private volatile boolean mClosed;
+
+    public AsyncLogSink(LogSink delegate, int queueCapacity) {
+        mDelegate = delegate;
+        mQueue = new ArrayBlockingQueue<Entry>(queueCapacity);
+        mThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "AsyncLogSink");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    @Override
+    public int write(int priority, String tag, String msg) {
+        enqueue(new Entry(priority, tag, msg, null, null));
+        return 0;
+    }
+
+    @Override
+    public int writeTemplate(int priority, String tag, String template,
+            Object[] args) {
+        enqueue(new Entry(priority, tag, template, snapshot(args), null));
+        return 0;
+    }
+
+    private void enqueue(Entry entry) {
+        if (mClosed || !mQueue.offer(entry)) {
+            mDropped.incrementAndGet();
+        }
+        else if (mClosed && mQueue.remove(entry)) {
+            // closed meanwhile and close() may be done draining the queue
+            mDropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wait until the events queued so far are written and flushed by the
+     * delegate, or a timeout of a few seconds expires.
+     */
+    @Override
+    public void flush() {
+        if (mClosed) {
+            return;
+        }
+        if (Thread.currentThread() == mThread || !mThread.isAlive()) {
+            mDelegate.flush();
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            if (mQueue.offer(new Entry(0, null, null, null, latch),
+                    FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                latch.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the background thread, write the events still queued on the
+     * calling thread and close the delegate. Events written afterwards are
+     * dropped.
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mThread.interrupt();
+        // the delegate must not be used by two threads at once, or closed
+        // while the drain thread is still writing its last batch
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        Entry entry;
+        while ((entry = mQueue.poll()) != null) {
+            processSafely(entry);
+        }
+        mDelegate.close();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    private void drainLoop() {
+        ArrayList<Entry> batch = new ArrayList<Entry>();
+        while (!mClosed) {
+            try {
+                batch.add(mQueue.take());
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            mQueue.drainTo(batch);
+            // finished even if closed meanwhile, close() waits for it
+            for (Entry entry : batch) {
+                processSafely(entry);
+            }
+            batch.clear();
+        }
+    }
+
+    private void processSafely(Entry entry) {
+        // a failing delegate must not stop the thread, the queue would fill
+        // up and every later event be dropped
+        try {
+            process(entry);
+        }
+        catch (RuntimeException e) {
+            mDropped.incrementAndGet();
+            e.printStackTrace();
+        }
+    }
+
+    private void process(Entry entry) {
+        if (entry.flushLatch != null) {
+            try {
+                mDelegate.flush();
+            }
+            finally {
+                entry.flushLatch.countDown();
+            }
+        }
+        else if (entry.args != null) {
+            mDelegate.writeTemplate(entry.priority, entry.tag, entry.msg,
+                    entry.args);
+        }
+        else {
+            mDelegate.write(entry.priority, entry.tag, entry.msg);
+        }
+    }
+
+    /**
+     * @return a copy of the arguments safe to use on the drain thread, never
+     *         null so the entry is told apart from a plain message
+     */
+    private static Object[] snapshot(Object[] args) {
+        if (args == null || args.length == 0) {
+            return NO_ARGS;
+        }
+        Object[] copy = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            copy[i] = arg == null || arg instanceof String
+                    || arg instanceof Long || arg instanceof Integer
+                    || arg instanceof Short || arg instanceof Byte
+                    || arg instanceof Double || arg instanceof Float
+                    || arg instanceof Boolean ? arg : String.valueOf(arg);
+        }
+        return copy;
+    }
+
+    private static class Entry {
+        final int priority;
+        final String tag;
+        // the message, or the template if args is not null
+        final String msg;
+        final Object[] args;
+        final CountDownLatch flushLatch;
+
+        Entry(int priority, String tag, String msg, Object[] args,
+                CountDownLatch flushLatch) {
+            this.priority = priority;
+            this.tag = tag;
+            this.msg = msg;
+            this.args = args;
+            this.flushLatch = flushLatch;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.mengdd.utils.log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes events to a file with a {@link BinaryLogWriter}. The file is
+ * replaced when the first event is written.
+ */
+public class BinaryFileLogSink implements LogSink {
+
+    private final File mFile;
+    private final boolean mAutoFlush;
+    private BinaryLogWriter mWriter;
+
+    public BinaryFileLogSink(File file, boolean autoFlush) {
+        mFile = file;
+        mAutoFlush = autoFlush;
+    }
+
+    /**
+     * Write a formatted message. Only real templates are interned in the
+     * template dictionary, a formatted message is the argument of the fixed
+     * template {@link BinaryLogFormat#PLACEHOLDER}, so distinct messages
+     * don't fill the dictionary.
+     */
+    @Override
+    public int write(int priority, String tag, String msg) {
+        return writeTemplate(priority, tag, BinaryLogFormat.PLACEHOLDER,
+                new Object[] { msg });
+    }
+
+    /**
+     * Write a message template and its arguments without formatting them, see
+     * {@link BinaryLogFormat#formatMessage(String, Object[])}.
+     */
+    @Override
+    public synchronized int writeTemplate(int priority, String tag,
+            String template, Object[] args) {
+        try {
+            if (mWriter == null) {
+                if (mFile.exists()) {
+                    mFile.delete();
+                }
+                mWriter = new BinaryLogWriter(new BufferedOutputStream(
+                        new FileOutputStream(mFile, true)), mAutoFlush);
+            }
+            mWriter.write(priority, tag, template, args);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (mWriter != null) {
+            try {
+                mWriter.flush();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            mWriter = null;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.mengdd.utils.log;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Converts a log written by {@link BinaryLogWriter} back to text, one line per
+ * event in a logcat-like layout:
+ *
+ * <pre>
+ * 10-19 09:13:22.123 I/FileUtils(1): create dir: /sdcard/download
+ * </pre>
+ *
+ * Plain JVM tool, usage:
+ *
+ * <pre>
+ * java com.mengdd.utils.log.BinaryLogDecoder &lt;log.bin&gt; [out.txt]
+ * </pre>
+ */
+public class BinaryLogDecoder {
+
+    private final InputStream mInputStream;
+    private final ArrayList<String> mTags = new ArrayList<String>();
+    private final ArrayList<String> mTemplates = new ArrayList<String>();
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat(
+            "MM-dd HH:mm:ss.SSS");
+    private byte[] mStringBuffer = new byte[256];
+    private long mTime;
+
+    public BinaryLogDecoder(InputStream inputStream) {
+        mInputStream = inputStream;
+        mTags.add(null);
+        mTemplates.add(null);
+    }
+
+    /**
+     * Decode the whole stream.
+     *
+     * @param writer
+     *            receives one line per event
+     * @return number of decoded events
+     * @throws IOException
+     *             if the stream is not a binary log or is corrupted; a log
+     *             truncated in the middle of the last record is decoded up to
+     *             that record
+     */
+    public int decode(Writer writer) throws IOException {
+        readHeader();
+        int events = 0;
+        ArrayList<Object> args = new ArrayList<Object>();
+        int recordType;
+        while ((recordType = mInputStream.read()) >= 0) {
+            try {
+                switch (recordType) {
+                case BinaryLogFormat.RECORD_TAG:
+                    define(mTags);
+                    break;
+                case BinaryLogFormat.RECORD_TEMPLATE:
+                    define(mTemplates);
+                    break;
+                case BinaryLogFormat.RECORD_EVENT:
+                    readEvent(writer, args);
+                    events++;
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + recordType);
+                }
+            }
+            catch (EOFException e) {
+                // the process died while the last record was being written
+                break;
+            }
+        }
+        writer.flush();
+        return events;
+    }
+
+    private void readHeader() throws IOException {
+        byte[] magic = new byte[BinaryLogFormat.MAGIC.length];
+        BinaryLogFormat.readFully(mInputStream, magic, magic.length);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != BinaryLogFormat.MAGIC[i]) {
+                throw new IOException("Not a binary log");
+            }
+        }
+        int version = mInputStream.read();
+        if (version != BinaryLogFormat.VERSION) {
+            throw new IOException("Unsupported binary log version " + version);
+        }
+        long time = 0;
+        for (int i = 0; i < 8; i++) {
+            int b = mInputStream.read();
+            if (b < 0) {
+                throw new EOFException("Truncated header");
+            }
+            time = (time << 8) | b;
+        }
+        mTime = time;
+    }
+
+    private void define(ArrayList<String> dictionary) throws IOException {
+        int id = BinaryLogFormat.readVarInt(mInputStream);
+        String value = readString();
+        if (id != dictionary.size()) {
+            throw new IOException("Unexpected dictionary id " + id);
+        }
+        dictionary.add(value);
+    }
+
+    private void readEvent(Writer writer, ArrayList<Object> args)
+            throws IOException {
+        int priority = mInputStream.read();
+        if (priority < 0) {
+            throw new EOFException();
+        }
+        mTime += BinaryLogFormat.zigZagDecode(BinaryLogFormat
+                .readVarLong(mInputStream));
+        long threadId = BinaryLogFormat.readVarLong(mInputStream);
+        String tag = lookup(mTags);
+        String template = lookup(mTemplates);
+
+        int argCount = BinaryLogFormat.readVarInt(mInputStream);
+        args.clear();
+        for (int i = 0; i < argCount; i++) {
+            args.add(readArgument());
+        }
+
+        StringBuilder line = new StringBuilder(64);
+        line.append(mDateFormat.format(new Date(mTime))).append(' ')
+                .append(BinaryLogFormat.priorityLetter(priority)).append('/')
+                .append(tag).append('(').append(threadId).append("): ")
+                .append(BinaryLogFormat.formatMessage(template, args.toArray()))
+                .append('\n');
+        writer.write(line.toString());
+    }
+
+    private String lookup(ArrayList<String> dictionary) throws IOException {
+        int id = BinaryLogFormat.readVarInt(mInputStream);
+        if (id == BinaryLogFormat.INLINE_ID) {
+            return readString();
+        }
+        if (id >= dictionary.size()) {
+            throw new IOException("Undefined dictionary id " + id);
+        }
+        return dictionary.get(id);
+    }
+
+    private Object readArgument() throws IOException {
+        int type = mInputStream.read();
+        switch (type) {
+        case BinaryLogFormat.ARG_NULL:
+            return null;
+        case BinaryLogFormat.ARG_LONG:
+            return BinaryLogFormat.zigZagDecode(BinaryLogFormat
+                    .readVarLong(mInputStream));
+        case BinaryLogFormat.ARG_DOUBLE:
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                int b = mInputStream.read();
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                bits = (bits << 8) | b;
+            }
+            return Double.longBitsToDouble(bits);
+        case BinaryLogFormat.ARG_BOOLEAN:
+            return mInputStream.read() == 1;
+        case BinaryLogFormat.ARG_STRING:
+            return readString();
+        case -1:
+            throw new EOFException();
+        default:
+            throw new IOException("Unknown argument type " + type);
+        }
+    }
+
+    private String readString() throws IOException {
+        int length = BinaryLogFormat.readVarInt(mInputStream);
+        if (length > mStringBuffer.length) {
+            mStringBuffer = new byte[Math.max(length, mStringBuffer.length * 2)];
+        }
+        BinaryLogFormat.readFully(mInputStream, mStringBuffer, length);
+        return new String(mStringBuffer, 0, length, BinaryLogFormat.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: BinaryLogDecoder <log.bin> [out.txt]");
+            System.exit(1);
+        }
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(
+                args[0]));
+        Writer writer = new PrintWriter(new OutputStreamWriter(
+                args.length > 1 ? new FileOutputStream(args[1]) : System.out,
+                BinaryLogFormat.UTF_8));
+        try {
+            int events = new BinaryLogDecoder(inputStream).decode(writer);
+            System.err.println(events + " events decoded");
+        }
+        finally {
+            inputStream.close();
+            writer.close();
+        }
+    }
+}
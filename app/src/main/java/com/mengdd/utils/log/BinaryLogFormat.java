@@ -0,0 +1,141 @@
+package com.mengdd.utils.log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Constants and primitive codecs shared by {@link BinaryLogWriter} and
+ * {@link BinaryLogDecoder}.
+ * <p>
+ * File layout: the 4 byte magic {@code MLOG}, a version byte and the base
+ * timestamp as an 8 byte big-endian long, followed by records. Every record
+ * starts with a record type byte:
+ * <ul>
+ * <li>{@link #RECORD_TAG} / {@link #RECORD_TEMPLATE}: varint id, string</li>
+ * <li>{@link #RECORD_EVENT}: priority byte, zigzag varint time delta (ms since
+ * the previous event), varint thread id, varint tag id, varint template id,
+ * varint argument count, then the typed arguments</li>
+ * </ul>
+ * Strings are a varint byte length followed by UTF-8 bytes. An id of
+ * {@link #INLINE_ID} means the string follows inline because the dictionary
+ * is full.
+ */
+public final class BinaryLogFormat {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final byte[] MAGIC = { 'M', 'L', 'O', 'G' };
+    static final int VERSION = 1;
+
+    static final int RECORD_TAG = 1;
+    static final int RECORD_TEMPLATE = 2;
+    static final int RECORD_EVENT = 3;
+
+    static final int ARG_NULL = 0;
+    static final int ARG_LONG = 1;
+    static final int ARG_DOUBLE = 2;
+    static final int ARG_STRING = 3;
+    static final int ARG_BOOLEAN = 4;
+
+    static final int INLINE_ID = 0;
+
+    /** Placeholder replaced by the arguments, in order. */
+    public static final String PLACEHOLDER = "{}";
+
+    private BinaryLogFormat() {
+    }
+
+    /**
+     * Substitute each {@link #PLACEHOLDER} in the template with the next
+     * argument. Surplus arguments are appended, missing ones leave the
+     * placeholder untouched.
+     *
+     * @param template
+     * @param args
+     * @return
+     */
+    public static String formatMessage(String template, Object[] args) {
+        if (args == null || args.length == 0) {
+            return template;
+        }
+        StringBuilder builder = new StringBuilder(template.length() + 16
+                * args.length);
+        int argIndex = 0;
+        int start = 0;
+        int index;
+        while (argIndex < args.length
+                && (index = template.indexOf(PLACEHOLDER, start)) >= 0) {
+            builder.append(template, start, index).append(args[argIndex++]);
+            start = index + PLACEHOLDER.length();
+        }
+        builder.append(template, start, template.length());
+        while (argIndex < args.length) {
+            builder.append(' ').append(args[argIndex++]);
+        }
+        return builder.toString();
+    }
+
+    public static char priorityLetter(int priority) {
+        switch (priority) {
+        case 2:
+            return 'V';
+        case 3:
+            return 'D';
+        case 4:
+            return 'I';
+        case 5:
+            return 'W';
+        case 6:
+            return 'E';
+        case 7:
+            return 'A';
+        default:
+            return '?';
+        }
+    }
+
+    static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated varint");
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static int readVarInt(InputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    static void readFully(InputStream in, byte[] buffer, int length)
+            throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int count = in.read(buffer, offset, length - offset);
+            if (count < 0) {
+                throw new EOFException("Truncated record");
+            }
+            offset += count;
+        }
+    }
+}
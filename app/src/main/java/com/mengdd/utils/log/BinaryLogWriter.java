@@ -0,0 +1,192 @@
+package com.mengdd.utils.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+/**
+ * Writes log events in the compact format described by
+ * {@link BinaryLogFormat}. Tags and message templates are interned into a
+ * dictionary the first time they are seen, so a repeated event costs a few
+ * varints instead of the full text.
+ * <p>
+ * Instances are thread safe; every method is synchronized on the writer.
+ */
+public class BinaryLogWriter {
+
+    /** Upper bound of entries per dictionary, later strings are inlined. */
+    private static final int MAX_DICTIONARY_SIZE = 8192;
+
+    private final OutputStream mOutputStream;
+    private final boolean mAutoFlush;
+
+    private final HashMap<String, Integer> mTags = new HashMap<String, Integer>();
+    private final HashMap<String, Integer> mTemplates = new HashMap<String, Integer>();
+
+    private byte[] mBuffer = new byte[256];
+    private int mPosition;
+    private long mLastTime;
+
+    /**
+     * @param outputStream
+     *            destination of the encoded log, written without extra
+     *            buffering
+     * @param autoFlush
+     *            flush the stream after every event
+     * @throws IOException
+     *             if the header cannot be written
+     */
+    public BinaryLogWriter(OutputStream outputStream, boolean autoFlush)
+            throws IOException {
+        mOutputStream = outputStream;
+        mAutoFlush = autoFlush;
+        mLastTime = System.currentTimeMillis();
+
+        mPosition = 0;
+        for (byte b : BinaryLogFormat.MAGIC) {
+            putByte(b);
+        }
+        putByte(BinaryLogFormat.VERSION);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            putByte((int) (mLastTime >>> shift));
+        }
+        drain();
+    }
+
+    /**
+     * Append one event.
+     *
+     * @param priority
+     *            one of the {@link android.util.Log} priorities
+     * @param tag
+     * @param template
+     *            message with {@link BinaryLogFormat#PLACEHOLDER}s
+     * @param args
+     *            values for the placeholders, may be {@code null}
+     * @throws IOException
+     */
+    public synchronized void write(int priority, String tag, String template,
+            Object[] args) throws IOException {
+        long now = System.currentTimeMillis();
+        mPosition = 0;
+        int tagId = intern(mTags, BinaryLogFormat.RECORD_TAG, tag);
+        int templateId = intern(mTemplates, BinaryLogFormat.RECORD_TEMPLATE,
+                template);
+
+        putByte(BinaryLogFormat.RECORD_EVENT);
+        putByte(priority);
+        putVarLong(BinaryLogFormat.zigZagEncode(now - mLastTime));
+        putVarLong(Thread.currentThread().getId());
+        putVarLong(tagId);
+        if (tagId == BinaryLogFormat.INLINE_ID) {
+            putString(tag);
+        }
+        putVarLong(templateId);
+        if (templateId == BinaryLogFormat.INLINE_ID) {
+            putString(template);
+        }
+
+        int argCount = args == null ? 0 : args.length;
+        putVarLong(argCount);
+        for (int i = 0; i < argCount; i++) {
+            putArgument(args[i]);
+        }
+        mLastTime = now;
+        drain();
+        if (mAutoFlush) {
+            mOutputStream.flush();
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        mOutputStream.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        mOutputStream.close();
+    }
+
+    private int intern(HashMap<String, Integer> dictionary, int recordType,
+            String value) {
+        if (value == null) {
+            value = "";
+        }
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (dictionary.size() >= MAX_DICTIONARY_SIZE) {
+            return BinaryLogFormat.INLINE_ID;
+        }
+        int newId = dictionary.size() + 1;
+        dictionary.put(value, newId);
+
+        putByte(recordType);
+        putVarLong(newId);
+        putString(value);
+        return newId;
+    }
+
+    private void putArgument(Object arg) {
+        if (arg == null) {
+            putByte(BinaryLogFormat.ARG_NULL);
+        }
+        else if (arg instanceof Long || arg instanceof Integer
+                || arg instanceof Short || arg instanceof Byte) {
+            putByte(BinaryLogFormat.ARG_LONG);
+            putVarLong(BinaryLogFormat.zigZagEncode(((Number) arg)
+                    .longValue()));
+        }
+        else if (arg instanceof Double || arg instanceof Float) {
+            putByte(BinaryLogFormat.ARG_DOUBLE);
+            long bits = Double.doubleToLongBits(((Number) arg).doubleValue());
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                putByte((int) (bits >>> shift));
+            }
+        }
+        else if (arg instanceof Boolean) {
+            putByte(BinaryLogFormat.ARG_BOOLEAN);
+            putByte(((Boolean) arg) ? 1 : 0);
+        }
+        else {
+            putByte(BinaryLogFormat.ARG_STRING);
+            putString(String.valueOf(arg));
+        }
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(BinaryLogFormat.UTF_8);
+        putVarLong(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mPosition, bytes.length);
+        mPosition += bytes.length;
+    }
+
+    private void putVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            mBuffer[mPosition++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mPosition++] = (byte) value;
+    }
+
+    private void putByte(int value) {
+        ensureCapacity(1);
+        mBuffer[mPosition++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mPosition + extra > mBuffer.length) {
+            byte[] buffer = new byte[Math.max(mBuffer.length * 2, mPosition
+                    + extra)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mPosition);
+            mBuffer = buffer;
+        }
+    }
+
+    private void drain() throws IOException {
+        mOutputStream.write(mBuffer, 0, mPosition);
+        mPosition = 0;
+    }
+}
@@ -0,0 +1,88 @@
+package com.mengdd.utils.log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes "tag  :  msg" lines to a text file. The file is replaced when the
+ * first event is written and kept open afterwards.
+ */
+public class FileLogSink implements LogSink {
+
+    private final File mFile;
+    private final boolean mAutoFlush;
+    private OutputStream mOutputStream;
+
+    /**
+     * @param file
+     * @param autoFlush
+     *            flush after every event, so nothing is lost if the process
+     *            dies
+     */
+    public FileLogSink(File file, boolean autoFlush) {
+        mFile = file;
+        mAutoFlush = autoFlush;
+    }
+
+    @Override
+    public synchronized int write(int priority, String tag, String msg) {
+        try {
+            if (mOutputStream == null) {
+                if (mFile.exists()) {
+                    mFile.delete();
+                }
+                mOutputStream = new BufferedOutputStream(new FileOutputStream(
+                        mFile, true));
+            }
+
+            StringBuilder builder = new StringBuilder();
+            builder.append(tag).append("  :  ").append(msg).append("\n");
+
+            byte[] data = builder.toString().getBytes(BinaryLogFormat.UTF_8);
+            mOutputStream.write(data);
+            if (mAutoFlush) {
+                mOutputStream.flush();
+            }
+            return data.length;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    @Override
+    public int writeTemplate(int priority, String tag, String template,
+            Object[] args) {
+        return write(priority, tag,
+                BinaryLogFormat.formatMessage(template, args));
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (mOutputStream != null) {
+            try {
+                mOutputStream.flush();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mOutputStream != null) {
+            try {
+                mOutputStream.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            mOutputStream = null;
+        }
+    }
+}
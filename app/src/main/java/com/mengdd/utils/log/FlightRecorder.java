@@ -0,0 +1,182 @@
+package com.mengdd.utils.log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Always-on in-memory record of the most recent log events, kept in a fixed
+ * size circular buffer per thread.
+ * <p>
+ * {@link #record(int, String, String)} does no I/O and takes no lock: each
+ * thread only writes into its own buffer and publishes the new position with
+ * one volatile write. The buffers are only read by {@link #dump(Writer)},
+ * which is meant for crash time or explicit requests; events written
+ * concurrently with a dump may be missing or torn.
+ */
+public final class FlightRecorder {
+
+    /** Events kept per thread. */
+    public static final int CAPACITY_PER_THREAD = 256;
+
+    /** Number of buffers after which buffers of dead threads are dropped. */
+    private static final int MAX_BUFFERS = 64;
+
+    private static volatile boolean sEnabled = true;
+
+    private static final List<Ring> RINGS = new CopyOnWriteArrayList<Ring>();
+
+    private static final ThreadLocal<Ring> LOCAL_RING = new ThreadLocal<Ring>() {
+        @Override
+        protected Ring initialValue() {
+            Ring ring = new Ring(Thread.currentThread());
+            register(ring);
+            return ring;
+        }
+    };
+
+    private FlightRecorder() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Remember an event in the calling thread's buffer, overwriting the oldest
+     * one when the buffer is full.
+     */
+    public static void record(int priority, String tag, String msg) {
+        if (sEnabled) {
+            LOCAL_RING.get().add(System.currentTimeMillis(), priority, tag, msg);
+        }
+    }
+
+    /**
+     * Write the recorded events of all threads, oldest first, one line per
+     * event.
+     *
+     * @param writer
+     * @return number of events written
+     * @throws IOException
+     */
+    public static int dump(Writer writer) throws IOException {
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (Ring ring : RINGS) {
+            ring.snapshot(events);
+        }
+        Collections.sort(events, new Comparator<Event>() {
+            @Override
+            public int compare(Event lhs, Event rhs) {
+                return lhs.time < rhs.time ? -1 : (lhs.time == rhs.time ? 0 : 1);
+            }
+        });
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS");
+        StringBuilder builder = new StringBuilder(128);
+        for (Event event : events) {
+            builder.setLength(0);
+            builder.append(dateFormat.format(new Date(event.time))).append(' ')
+                    .append(BinaryLogFormat.priorityLetter(event.priority))
+                    .append('/').append(event.tag).append('(')
+                    .append(event.threadName).append("): ")
+                    .append(event.msg).append('\n');
+            writer.write(builder.toString());
+        }
+        writer.flush();
+        return events.size();
+    }
+
+    /**
+     * Drop the events recorded so far, the buffers stay allocated.
+     */
+    public static void clear() {
+        for (Ring ring : RINGS) {
+            ring.clearRequested = true;
+        }
+    }
+
+    private static void register(Ring ring) {
+        if (RINGS.size() >= MAX_BUFFERS) {
+            ArrayList<Ring> dead = new ArrayList<Ring>();
+            for (Ring r : RINGS) {
+                Thread thread = r.thread.get();
+                if (thread == null || !thread.isAlive()) {
+                    dead.add(r);
+                }
+            }
+            RINGS.removeAll(dead);
+        }
+        RINGS.add(ring);
+    }
+
+    private static class Ring {
+        final WeakReference<Thread> thread;
+        final String threadName;
+
+        final long[] times = new long[CAPACITY_PER_THREAD];
+        final int[] priorities = new int[CAPACITY_PER_THREAD];
+        final String[] tags = new String[CAPACITY_PER_THREAD];
+        final String[] messages = new String[CAPACITY_PER_THREAD];
+
+        // total number of events ever added, written only by the owner thread
+        volatile long count;
+        volatile boolean clearRequested;
+
+        Ring(Thread owner) {
+            thread = new WeakReference<Thread>(owner);
+            threadName = owner.getName() + ":" + owner.getId();
+        }
+
+        void add(long time, int priority, String tag, String msg) {
+            long c = count;
+            if (clearRequested) {
+                clearRequested = false;
+                c = 0;
+            }
+            int index = (int) (c % CAPACITY_PER_THREAD);
+            times[index] = time;
+            priorities[index] = priority;
+            tags[index] = tag;
+            messages[index] = msg;
+            count = c + 1;
+        }
+
+        void snapshot(List<Event> out) {
+            if (clearRequested) {
+                return;
+            }
+            long c = count;
+            long first = Math.max(0, c - CAPACITY_PER_THREAD);
+            for (long i = first; i < c; i++) {
+                int index = (int) (i % CAPACITY_PER_THREAD);
+                Event event = new Event();
+                event.time = times[index];
+                event.priority = priorities[index];
+                event.tag = tags[index];
+                event.msg = messages[index];
+                event.threadName = threadName;
+                out.add(event);
+            }
+        }
+    }
+
+    private static class Event {
+        long time;
+        int priority;
+        String tag;
+        String msg;
+        String threadName;
+    }
+}
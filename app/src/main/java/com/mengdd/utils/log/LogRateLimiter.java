@@ -0,0 +1,198 @@
+package com.mengdd.utils.log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runtime configurable limits for log events, keyed by tag or by tag and call
+ * site (see {@link #siteKey(String, String)}).
+ * <p>
+ * A rule is either a token bucket ({@link #setRateLimit(String, double, int)})
+ * or 1-in-N sampling ({@link #setSampling(String, int)}). Events dropped by a
+ * rule are counted so the caller can report them with
+ * {@link Rule#takeSuppressedIfDue(long)}. Looking up a tag without any rule
+ * is a single map read.
+ */
+public class LogRateLimiter {
+
+    /** Minimum time between two reports of the same rule. */
+    public static final long REPORT_INTERVAL_MS = 10 * 1000;
+
+    private final ConcurrentHashMap<String, Rule> mRules = new ConcurrentHashMap<String, Rule>();
+    private volatile boolean mHasSiteRules;
+
+    /**
+     * Key of a rule that only applies to one call site of a tag.
+     *
+     * @param tag
+     * @param site
+     *            the calling method, as "Class.method" or "method"
+     * @return
+     */
+    public static String siteKey(String tag, String site) {
+        return tag + '#' + site;
+    }
+
+    /**
+     * Allow on average permitsPerSecond events, with bursts of up to burst
+     * events.
+     */
+    public void setRateLimit(String key, double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond must be > 0 and burst >= 1");
+        }
+        putRule(key, new TokenBucketRule(key, permitsPerSecond, burst));
+    }
+
+    /**
+     * Keep only the first of every n events.
+     */
+    public void setSampling(String key, int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be >= 1");
+        }
+        putRule(key, new SamplingRule(key, n));
+    }
+
+    public void remove(String key) {
+        mRules.remove(key);
+    }
+
+    public void clear() {
+        mRules.clear();
+        mHasSiteRules = false;
+    }
+
+    /**
+     * Find the rule applying to an event, the call site rule wins over the
+     * tag rule.
+     *
+     * @param tag
+     * @param site
+     *            may be null if the call site is unknown
+     * @return the rule, or null if the event is not limited
+     */
+    public Rule ruleFor(String tag, String site) {
+        if (mRules.isEmpty() || tag == null) {
+            return null;
+        }
+        if (site != null && mHasSiteRules) {
+            Rule rule = mRules.get(siteKey(tag, site));
+            if (rule != null) {
+                return rule;
+            }
+        }
+        return mRules.get(tag);
+    }
+
+    /**
+     * Take the suppressed counts of all rules, whether a report is due or not.
+     *
+     * @param out
+     *            receives key to count for every rule with suppressed events
+     */
+    public void drainSuppressed(Map<String, Long> out) {
+        long now = System.currentTimeMillis();
+        for (Rule rule : mRules.values()) {
+            long count = rule.takeSuppressed(now);
+            if (count > 0) {
+                out.put(rule.key, count);
+            }
+        }
+    }
+
+    private void putRule(String key, Rule rule) {
+        if (key.indexOf('#') >= 0) {
+            mHasSiteRules = true;
+        }
+        mRules.put(key, rule);
+    }
+
+    public static abstract class Rule {
+        public final String key;
+
+        private final AtomicLong mSuppressed = new AtomicLong();
+        private volatile long mLastReport = System.currentTimeMillis();
+
+        Rule(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return true if the event may be logged, false if it is dropped and
+         *         counted as suppressed
+         */
+        public boolean tryAcquire() {
+            if (acquire()) {
+                return true;
+            }
+            mSuppressed.incrementAndGet();
+            return false;
+        }
+
+        /**
+         * @return the number of events suppressed since the last report if
+         *         {@link LogRateLimiter#REPORT_INTERVAL_MS} has passed, 0
+         *         otherwise
+         */
+        public long takeSuppressedIfDue(long now) {
+            if (now - mLastReport < REPORT_INTERVAL_MS || mSuppressed.get() == 0) {
+                return 0;
+            }
+            return takeSuppressed(now);
+        }
+
+        long takeSuppressed(long now) {
+            mLastReport = now;
+            return mSuppressed.getAndSet(0);
+        }
+
+        abstract boolean acquire();
+    }
+
+    private static class TokenBucketRule extends Rule {
+        private final double mPermitsPerMilli;
+        private final int mBurst;
+        private double mTokens;
+        private long mLastRefill;
+
+        TokenBucketRule(String key, double permitsPerSecond, int burst) {
+            super(key);
+            mPermitsPerMilli = permitsPerSecond / 1000;
+            mBurst = burst;
+            mTokens = burst;
+            mLastRefill = System.currentTimeMillis();
+        }
+
+        @Override
+        synchronized boolean acquire() {
+            long now = System.currentTimeMillis();
+            if (now > mLastRefill) {
+                mTokens = Math.min(mBurst, mTokens + (now - mLastRefill)
+                        * mPermitsPerMilli);
+                mLastRefill = now;
+            }
+            if (mTokens >= 1) {
+                mTokens -= 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class SamplingRule extends Rule {
+        private final int mN;
+        private final AtomicLong mCounter = new AtomicLong();
+
+        SamplingRule(String key, int n) {
+            super(key);
+            mN = n;
+        }
+
+        @Override
+        boolean acquire() {
+            return mCounter.getAndIncrement() % mN == 0;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.mengdd.utils.log;
+
+/**
+ * Destination of the events written by
+ * {@link com.mengdd.utils.android.LogUtils}. Select one at startup with
+ * {@code LogUtils.setSink(LogSink)}; implementations must be thread safe.
+ */
+public interface LogSink {
+
+    /**
+     * @param priority
+     *            one of the {@link android.util.Log} priorities
+     * @param tag
+     * @param msg
+     *            never null
+     * @return number of bytes written, or 0 if unknown
+     */
+    int write(int priority, String tag, String msg);
+
+    /**
+     * Write a message template and its arguments, see
+     * {@link BinaryLogFormat#formatMessage(String, Object[])}. Text sinks
+     * write the formatted message, a binary sink can keep the template once
+     * and write only the arguments per event.
+     *
+     * @param template
+     *            never null
+     * @param args
+     *            may be null or empty
+     * @return number of bytes written, or 0 if unknown
+     */
+    int writeTemplate(int priority, String tag, String template, Object[] args);
+
+    /**
+     * Make sure everything written so far has reached its destination.
+     */
+    void flush();
+
+    /**
+     * Release the resources, the sink is not used afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,91 @@
+package com.mengdd.utils.log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Keeps the last events in memory, for tests and benchmarks.
+ */
+public class MemoryLogSink implements LogSink {
+
+    public static class Entry {
+        public final long time;
+        public final int priority;
+        public final String tag;
+        public final String msg;
+
+        Entry(long time, int priority, String tag, String msg) {
+            this.time = time;
+            this.priority = priority;
+            this.tag = tag;
+            this.msg = msg;
+        }
+
+        @Override
+        public String toString() {
+            return BinaryLogFormat.priorityLetter(priority) + "/" + tag + ": "
+                    + msg;
+        }
+    }
+
+    private final int mCapacity;
+    private final LinkedList<Entry> mEntries = new LinkedList<Entry>();
+    private long mCount;
+
+    /**
+     * @param capacity
+     *            maximum number of events kept, older ones are dropped
+     */
+    public MemoryLogSink(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        mCapacity = capacity;
+    }
+
+    @Override
+    public synchronized int write(int priority, String tag, String msg) {
+        if (mEntries.size() == mCapacity) {
+            mEntries.removeFirst();
+        }
+        mEntries.add(new Entry(System.currentTimeMillis(), priority, tag, msg));
+        mCount++;
+        return msg.length();
+    }
+
+    @Override
+    public int writeTemplate(int priority, String tag, String template,
+            Object[] args) {
+        return write(priority, tag,
+                BinaryLogFormat.formatMessage(template, args));
+    }
+
+    /**
+     * @return a copy of the events kept, oldest first
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(mEntries);
+    }
+
+    /**
+     * @return number of events written since creation or the last
+     *         {@link #clear()}, including dropped ones
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mCount = 0;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
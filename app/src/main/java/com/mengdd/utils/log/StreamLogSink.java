@@ -0,0 +1,41 @@
+package com.mengdd.utils.log;
+
+import java.io.PrintStream;
+
+/**
+ * Writes "P/tag: msg" lines to a {@link PrintStream}, the default sink when
+ * running on a plain JVM.
+ */
+public class StreamLogSink implements LogSink {
+
+    private final PrintStream mStream;
+
+    public StreamLogSink(PrintStream stream) {
+        mStream = stream;
+    }
+
+    @Override
+    public int write(int priority, String tag, String msg) {
+        String line = BinaryLogFormat.priorityLetter(priority) + "/" + tag
+                + ": " + msg;
+        mStream.println(line);
+        return line.length();
+    }
+
+    @Override
+    public int writeTemplate(int priority, String tag, String template,
+            Object[] args) {
+        return write(priority, tag,
+                BinaryLogFormat.formatMessage(template, args));
+    }
+
+    @Override
+    public void flush() {
+        mStream.flush();
+    }
+
+    @Override
+    public void close() {
+        mStream.flush();
+    }
+}
@@ -0,0 +1,179 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, structured view of the members of a class, cached per class.
+ * <p>
+ * Each member list is only loaded the first time it is asked for, so
+ * checking one method does not load the fields or constructors. Use
+ * {@link ClassModelFormatter} for a text view.
+ */
+public final class ClassModel {
+
+    private static final Object CACHE_KEY = new Object();
+
+    private static final int METHODS = 0;
+    private static final int DECLARED_METHODS = 1;
+    private static final int FIELDS = 2;
+    private static final int DECLARED_FIELDS = 3;
+    private static final int CONSTRUCTORS = 4;
+    private static final int DECLARED_CONSTRUCTORS = 5;
+
+    private final Class<?> mClass;
+
+    // loaded outside the lock, if two threads race the first stored list wins
+    @SuppressWarnings("unchecked")
+    private final List<MemberModel>[] mMembers = new List[6];
+
+    private ClassModel(Class<?> cls) {
+        mClass = cls;
+    }
+
+    /**
+     * @return the model of the class, created once per class
+     */
+    public static ClassModel of(Class<?> cls) {
+        ReflectCache.ClassEntry entry = ReflectCache.getEntry(cls);
+        ClassModel model = (ClassModel) entry.get(CACHE_KEY);
+        if (model == null) {
+            model = (ClassModel) entry.putIfAbsent(CACHE_KEY,
+                    new ClassModel(cls));
+        }
+        return model;
+    }
+
+    /**
+     * @throws ClassNotFoundException
+     */
+    public static ClassModel of(String className) throws ClassNotFoundException {
+        return of(ReflectCache.forName(className));
+    }
+
+    public Class<?> getModelClass() {
+        return mClass;
+    }
+
+    public String getName() {
+        return mClass.getName();
+    }
+
+    public int getModifiers() {
+        return mClass.getModifiers();
+    }
+
+    /**
+     * @return public methods, including inherited ones
+     */
+    public List<MemberModel> getMethods() {
+        return get(METHODS);
+    }
+
+    /**
+     * @return methods declared by the class, including private ones
+     */
+    public List<MemberModel> getDeclaredMethods() {
+        return get(DECLARED_METHODS);
+    }
+
+    /**
+     * @return public fields, including inherited ones
+     */
+    public List<MemberModel> getFields() {
+        return get(FIELDS);
+    }
+
+    /**
+     * @return fields declared by the class, including private ones
+     */
+    public List<MemberModel> getDeclaredFields() {
+        return get(DECLARED_FIELDS);
+    }
+
+    public List<MemberModel> getConstructors() {
+        return get(CONSTRUCTORS);
+    }
+
+    public List<MemberModel> getDeclaredConstructors() {
+        return get(DECLARED_CONSTRUCTORS);
+    }
+
+    /**
+     * @return the first declared method with the name, or null
+     */
+    public MemberModel findDeclaredMethod(String name) {
+        for (MemberModel member : getDeclaredMethods()) {
+            if (member.getName().equals(name)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    private List<MemberModel> get(int kind) {
+        List<MemberModel> members;
+        synchronized (mMembers) {
+            members = mMembers[kind];
+        }
+        if (members == null) {
+            members = load(kind);
+            synchronized (mMembers) {
+                if (mMembers[kind] == null) {
+                    mMembers[kind] = members;
+                }
+                else {
+                    members = mMembers[kind];
+                }
+            }
+        }
+        return members;
+    }
+
+    private List<MemberModel> load(int kind) {
+        ArrayList<MemberModel> members = new ArrayList<MemberModel>();
+        switch (kind) {
+        case METHODS:
+            for (Method method : mClass.getMethods()) {
+                members.add(MemberModel.of(method));
+            }
+            break;
+        case DECLARED_METHODS:
+            for (Method method : mClass.getDeclaredMethods()) {
+                members.add(MemberModel.of(method));
+            }
+            break;
+        case FIELDS:
+            for (Field field : mClass.getFields()) {
+                members.add(MemberModel.of(field));
+            }
+            break;
+        case DECLARED_FIELDS:
+            for (Field field : mClass.getDeclaredFields()) {
+                members.add(MemberModel.of(field));
+            }
+            break;
+        case CONSTRUCTORS:
+            for (Constructor<?> constructor : mClass.getConstructors()) {
+                members.add(MemberModel.of(constructor));
+            }
+            break;
+        default:
+            for (Constructor<?> constructor : mClass.getDeclaredConstructors()) {
+                members.add(MemberModel.of(constructor));
+            }
+            break;
+        }
+        members.trimToSize();
+        return Collections.unmodifiableList(members);
+    }
+
+    @Override
+    public String toString() {
+        return "ClassModel[" + mClass.getName() + "]";
+    }
+}
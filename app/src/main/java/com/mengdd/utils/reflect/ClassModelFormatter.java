@@ -0,0 +1,107 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+/**
+ * Text view of {@link ClassModel} members, in the layout of the
+ * ReflectUtils info methods:
+ *
+ * <pre>
+ * method: 1 : 
+ * name: toString
+ * getReturnType: class java.lang.String
+ * getParameterTypes: []
+ * getModifiers: 1, 
+ * isPublic: true, 
+ * ...
+ * </pre>
+ *
+ * Everything is appended to one {@link StringBuilder}.
+ */
+public final class ClassModelFormatter {
+
+    private ClassModelFormatter() {
+    }
+
+    public static String formatMethods(List<MemberModel> methods) {
+        StringBuilder builder = new StringBuilder(methods.size() * 160);
+        appendMethods(builder, methods);
+        return builder.toString();
+    }
+
+    public static String formatFields(List<MemberModel> fields) {
+        StringBuilder builder = new StringBuilder(fields.size() * 140);
+        appendFields(builder, fields);
+        return builder.toString();
+    }
+
+    public static String formatConstructors(List<MemberModel> constructors) {
+        StringBuilder builder = new StringBuilder(constructors.size() * 80);
+        appendConstructors(builder, constructors);
+        return builder.toString();
+    }
+
+    public static void appendMethods(StringBuilder builder,
+            List<MemberModel> methods) {
+        int i = 0;
+        for (MemberModel method : methods) {
+            builder.append("method: ").append(++i).append(" : ");
+            builder.append("\nname: ").append(method.getName());
+            builder.append("\ngetReturnType: ").append(method.getType());
+            builder.append("\ngetParameterTypes: ");
+            appendTypes(builder, method);
+            appendModifiers(builder, method.getModifiers());
+            builder.append('\n');
+        }
+    }
+
+    public static void appendFields(StringBuilder builder,
+            List<MemberModel> fields) {
+        int i = 0;
+        for (MemberModel field : fields) {
+            builder.append("field: ").append(++i).append(" : ");
+            builder.append("\nname: ").append(field.getName());
+            builder.append("\ngetType: ").append(field.getType());
+            appendModifiers(builder, field.getModifiers());
+            builder.append('\n');
+        }
+    }
+
+    public static void appendConstructors(StringBuilder builder,
+            List<MemberModel> constructors) {
+        int i = 0;
+        for (MemberModel constructor : constructors) {
+            builder.append("method: ").append(++i).append(" : ");
+            builder.append("\nname: ").append(constructor.getName());
+            builder.append("\ngetParameterTypes: ");
+            appendTypes(builder, constructor);
+            builder.append('\n');
+        }
+    }
+
+    private static void appendTypes(StringBuilder builder, MemberModel member) {
+        builder.append('[');
+        int count = member.getParameterCount();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(member.getParameterType(i));
+        }
+        builder.append(']');
+    }
+
+    private static void appendModifiers(StringBuilder builder, int modifiers) {
+        builder.append("\ngetModifiers: ").append(modifiers).append(", ");
+        builder.append("\nisPublic: ").append(Modifier.isPublic(modifiers))
+                .append(", ");
+        builder.append("\nisPrivate: ").append(Modifier.isPrivate(modifiers))
+                .append(", ");
+        builder.append("\nisStatic: ").append(Modifier.isStatic(modifiers))
+                .append(", ");
+        builder.append("\nisFinal: ").append(Modifier.isFinal(modifiers))
+                .append(", ");
+        builder.append("\nisAbstract: ").append(Modifier.isAbstract(modifiers));
+    }
+}
@@ -0,0 +1,299 @@
+package com.mengdd.utils.reflect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads and initializes classes in parallel on background threads, so the
+ * {@link Class#forName(String)} calls made later on the startup path find
+ * them in {@link ReflectCache} and pay no class loading or static
+ * initialization.
+ * <p>
+ * Optionally the member lists of each class are resolved into its
+ * {@link ClassModel} as well. The time spent per class is reported in a
+ * {@link Result}.
+ */
+public final class ClassPreloader {
+
+    /** Only load and initialize the classes. */
+    public static final int WARM_NONE = 0;
+    /** Also resolve the declared and public methods. */
+    public static final int WARM_METHODS = 1;
+    /** Also resolve the declared and public fields. */
+    public static final int WARM_FIELDS = 2;
+    /** Also resolve the declared and public constructors. */
+    public static final int WARM_CONSTRUCTORS = 4;
+    public static final int WARM_ALL = WARM_METHODS | WARM_FIELDS
+            | WARM_CONSTRUCTORS;
+
+    /**
+     * Notified on the loading threads.
+     */
+    public interface Listener {
+        void onClassLoaded(Result result);
+
+        /**
+         * @param results
+         *            in the order the names were given
+         */
+        void onFinished(List<Result> results);
+    }
+
+    public static final class Result {
+        public final String className;
+        /** null if loading failed */
+        public final Class<?> loadedClass;
+        /** time of Class.forName, including static initialization */
+        public final long loadNanos;
+        /** time spent resolving members into the ClassModel */
+        public final long warmNanos;
+        /** null if loading succeeded */
+        public final Throwable error;
+
+        Result(String className, Class<?> loadedClass, long loadNanos,
+                long warmNanos, Throwable error) {
+            this.className = className;
+            this.loadedClass = loadedClass;
+            this.loadNanos = loadNanos;
+            this.warmNanos = warmNanos;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return className + ": load " + loadNanos / 1000 + "us, warm "
+                    + warmNanos / 1000 + "us"
+                    + (error != null ? ", failed: " + error : "");
+        }
+    }
+
+    private static volatile Executor sDefaultExecutor;
+
+    private ClassPreloader() {
+    }
+
+    /**
+     * Preload on a shared pool of low priority daemon threads.
+     */
+    public static Future<List<Result>> preload(List<String> classNames,
+            int warmFlags, Listener listener) {
+        return preload(getDefaultExecutor(), classNames, warmFlags, listener);
+    }
+
+    /**
+     * @param executor
+     *            runs one task per class
+     * @param classNames
+     * @param warmFlags
+     *            combination of the WARM_ constants
+     * @param listener
+     *            may be null
+     * @return completes when all classes are done, failed classes are
+     *         reported in their Result rather than failing the future
+     */
+    public static Future<List<Result>> preload(Executor executor,
+            List<String> classNames, int warmFlags, Listener listener) {
+        PreloadFuture future = new PreloadFuture(classNames.size(), listener);
+        for (int i = 0; i < classNames.size(); i++) {
+            executor.execute(new LoadTask(future, i, classNames.get(i),
+                    warmFlags));
+        }
+        if (classNames.isEmpty()) {
+            future.finish();
+        }
+        return future;
+    }
+
+    private static Executor getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            synchronized (ClassPreloader.class) {
+                if (sDefaultExecutor == null) {
+                    int threads = Math.max(2, Math.min(4, Runtime.getRuntime()
+                            .availableProcessors()));
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                            threads, threads, 5, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory() {
+                                private final AtomicInteger mCount = new AtomicInteger();
+
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    Thread thread = new Thread(r,
+                                            "ClassPreloader-"
+                                                    + mCount.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    thread.setPriority(Thread.MIN_PRIORITY);
+                                    return thread;
+                                }
+                            });
+                    executor.allowCoreThreadTimeOut(true);
+                    sDefaultExecutor = executor;
+                }
+            }
+        }
+        return sDefaultExecutor;
+    }
+
+    static Result load(String className, int warmFlags) {
+        long start = System.nanoTime();
+        Class<?> cls;
+        try {
+            cls = ReflectCache.forName(className);
+        }
+        catch (Throwable e) {
+            // ClassNotFoundException, or ExceptionInInitializerError and
+            // other linkage errors
+            return new Result(className, null, System.nanoTime() - start, 0,
+                    e);
+        }
+        long loaded = System.nanoTime();
+
+        Throwable error = null;
+        if (warmFlags != WARM_NONE) {
+            try {
+                ClassModel model = ClassModel.of(cls);
+                if ((warmFlags & WARM_METHODS) != 0) {
+                    model.getDeclaredMethods();
+                    model.getMethods();
+                }
+                if ((warmFlags & WARM_FIELDS) != 0) {
+                    model.getDeclaredFields();
+                    model.getFields();
+                }
+                if ((warmFlags & WARM_CONSTRUCTORS) != 0) {
+                    model.getDeclaredConstructors();
+                    model.getConstructors();
+                }
+            }
+            catch (Throwable e) {
+                // NoClassDefFoundError for a member type that is missing
+                error = e;
+            }
+        }
+        return new Result(className, cls, loaded - start, System.nanoTime()
+                - loaded, error);
+    }
+
+    private static class LoadTask implements Runnable {
+        private final PreloadFuture mFuture;
+        private final int mIndex;
+        private final String mClassName;
+        private final int mWarmFlags;
+
+        LoadTask(PreloadFuture future, int index, String className,
+                int warmFlags) {
+            mFuture = future;
+            mIndex = index;
+            mClassName = className;
+            mWarmFlags = warmFlags;
+        }
+
+        @Override
+        public void run() {
+            if (mFuture.isCancelled()) {
+                return;
+            }
+            mFuture.set(mIndex, load(mClassName, mWarmFlags));
+        }
+    }
+
+    private static class PreloadFuture implements Future<List<Result>> {
+        private final Result[] mResults;
+        private final AtomicInteger mRemaining;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final Listener mListener;
+        private volatile boolean mCancelled;
+
+        PreloadFuture(int count, Listener listener) {
+            mResults = new Result[count];
+            mRemaining = new AtomicInteger(count);
+            mListener = listener;
+        }
+
+        void set(int index, Result result) {
+            synchronized (mResults) {
+                mResults[index] = result;
+            }
+            if (mListener != null) {
+                mListener.onClassLoaded(result);
+            }
+            if (mRemaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        void finish() {
+            if (mListener != null && !mCancelled) {
+                mListener.onFinished(getResults());
+            }
+            mDone.countDown();
+        }
+
+        private List<Result> getResults() {
+            synchronized (mResults) {
+                return Collections.unmodifiableList(new ArrayList<Result>(
+                        Arrays.asList(mResults)));
+            }
+        }
+
+        /**
+         * Classes whose loading already started are still loaded.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (isDone()) {
+                return false;
+            }
+            mCancelled = true;
+            mDone.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        @Override
+        public List<Result> get() throws InterruptedException,
+                ExecutionException {
+            mDone.await();
+            return checkedResults();
+        }
+
+        @Override
+        public List<Result> get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!mDone.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return checkedResults();
+        }
+
+        private List<Result> checkedResults() {
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+            return getResults();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+
+/**
+ * {@link ObjectFactory} backed by one constructor, resolved and made
+ * accessible once and cached per constructor.
+ * <p>
+ * Lookup problems are reported when the factory is created, as a
+ * {@link ReflectException} whose cause is the {@link ClassNotFoundException}
+ * or {@link NoSuchMethodException}. Exceptions thrown by the constructor are
+ * rethrown unchanged when unchecked and wrapped in a {@link ReflectException}
+ * otherwise.
+ */
+public final class ConstructorFactory<T> implements ObjectFactory<T> {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final Constructor<T> mConstructor;
+    private final int mArity;
+
+    private ConstructorFactory(Constructor<T> constructor) {
+        mConstructor = constructor;
+        mArity = constructor.getParameterTypes().length;
+    }
+
+    /**
+     * @param cls
+     *            must be a concrete class
+     * @param paramTypes
+     *            parameter types of the constructor, none for the no-arg
+     *            constructor
+     * @return the factory, created once per constructor
+     * @throws ReflectException
+     *             if the class is abstract or has no such constructor
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ConstructorFactory<T> of(Class<T> cls,
+            Class<?>... paramTypes) {
+        if (cls.isInterface() || Modifier.isAbstract(cls.getModifiers())
+                || cls.isArray() || cls.isPrimitive()) {
+            throw new ReflectException(cls.getName() + " cannot be instantiated");
+        }
+        Constructor<T> constructor;
+        try {
+            constructor = ReflectCache.getConstructor(cls, paramTypes);
+        }
+        catch (NoSuchMethodException e) {
+            throw new ReflectException("No such constructor in "
+                    + cls.getName(), e);
+        }
+        ReflectCache.ClassEntry entry = ReflectCache.getEntry(cls);
+        ConstructorFactory<T> factory = (ConstructorFactory<T>) entry
+                .get(constructor);
+        if (factory == null) {
+            factory = (ConstructorFactory<T>) entry.putIfAbsent(constructor,
+                    new ConstructorFactory<T>(constructor));
+        }
+        return factory;
+    }
+
+    /**
+     * @param className
+     * @param paramTypes
+     * @return
+     * @throws ReflectException
+     *             if the class cannot be found or has no such constructor
+     */
+    public static ConstructorFactory<?> of(String className,
+            Class<?>... paramTypes) {
+        Class<?> cls;
+        try {
+            cls = ReflectCache.forName(className);
+        }
+        catch (ClassNotFoundException e) {
+            throw new ReflectException("Class not found: " + className, e);
+        }
+        return of(cls, paramTypes);
+    }
+
+    /**
+     * Call the constructor without arguments.
+     */
+    @Override
+    public T create() {
+        if (mArity != 0) {
+            throw new ReflectException(mConstructor
+                    + " needs arguments, use create(Object...)");
+        }
+        return newInstance(NO_ARGS);
+    }
+
+    /**
+     * Call the constructor with the given arguments.
+     */
+    public T create(Object... args) {
+        return newInstance(args);
+    }
+
+    public Constructor<T> getConstructor() {
+        return mConstructor;
+    }
+
+    private T newInstance(Object[] args) {
+        long start = ReflectMetrics.start();
+        try {
+            return mConstructor.newInstance(args);
+        }
+        catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ReflectException(mConstructor + " threw " + cause, cause);
+        }
+        catch (InstantiationException e) {
+            throw new ReflectException("Cannot instantiate "
+                    + mConstructor.getDeclaringClass().getName(), e);
+        }
+        catch (IllegalAccessException e) {
+            throw new ReflectException("Cannot access " + mConstructor, e);
+        }
+        finally {
+            ReflectMetrics.recordInvocation(mConstructor, start);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConstructorFactory[" + mConstructor + "]";
+    }
+}
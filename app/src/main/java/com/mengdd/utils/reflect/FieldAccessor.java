@@ -0,0 +1,266 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable getter and setter of one field, made accessible once.
+ * <p>
+ * The primitive specialized methods ({@link #getInt(Object)},
+ * {@link #setLong(Object, long)}, ...) go through the matching
+ * {@link Field} methods, so values are not boxed. Failures are reported as
+ * {@link ReflectException}, or as the {@link IllegalArgumentException} of
+ * {@link Field} when the type does not match.
+ * <p>
+ * java.lang.invoke (VarHandle, MethodHandle) is not available on the Android
+ * versions this library supports.
+ */
+public final class FieldAccessor {
+
+    private final Field mField;
+    private final boolean mStatic;
+
+    private FieldAccessor(Field field) {
+        if (!field.isAccessible()) {
+            field.setAccessible(true);
+        }
+        mField = field;
+        mStatic = Modifier.isStatic(field.getModifiers());
+    }
+
+    /**
+     * @return the accessor of the field, created once per field
+     */
+    public static FieldAccessor of(Field field) {
+        ReflectCache.ClassEntry entry = ReflectCache.getEntry(field
+                .getDeclaringClass());
+        FieldAccessor accessor = (FieldAccessor) entry.get(field);
+        if (accessor == null) {
+            accessor = (FieldAccessor) entry.putIfAbsent(field,
+                    new FieldAccessor(field));
+        }
+        return accessor;
+    }
+
+    /**
+     * Find a field declared by the class or one of its super classes.
+     *
+     * @throws NoSuchFieldException
+     */
+    public static FieldAccessor of(Class<?> cls, String name)
+            throws NoSuchFieldException {
+        for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+            try {
+                return of(ReflectCache.getDeclaredField(c, name));
+            }
+            catch (NoSuchFieldException e) {
+                // keep looking in the super class
+            }
+        }
+        throw new NoSuchFieldException(cls.getName() + "." + name);
+    }
+
+    /**
+     * @return accessors of the instance fields of the class and its super
+     *         classes, subclass fields first; a field hidden by a subclass
+     *         field of the same name is left out
+     */
+    public static List<FieldAccessor> ofInstanceFields(Class<?> cls) {
+        List<Field> fields = FieldCopier.getInstanceFields(cls);
+        ArrayList<FieldAccessor> accessors = new ArrayList<FieldAccessor>(
+                fields.size());
+        for (Field field : fields) {
+            accessors.add(of(field));
+        }
+        return accessors;
+    }
+
+    public Field getField() {
+        return mField;
+    }
+
+    public Class<?> getType() {
+        return mField.getType();
+    }
+
+    public String getName() {
+        return mField.getName();
+    }
+
+    public boolean isStatic() {
+        return mStatic;
+    }
+
+    public Object get(Object target) {
+        try {
+            return mField.get(target);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public void set(Object target, Object value) {
+        try {
+            mField.set(target, value);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public boolean getBoolean(Object target) {
+        try {
+            return mField.getBoolean(target);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public void setBoolean(Object target, boolean value) {
+        try {
+            mField.setBoolean(target, value);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public byte getByte(Object target) {
+        try {
+            return mField.getByte(target);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public void setByte(Object target, byte value) {
+        try {
+            mField.setByte(target, value);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public char getChar(Object target) {
+        try {
+            return mField.getChar(target);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public void setChar(Object target, char value) {
+        try {
+            mField.setChar(target, value);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public short getShort(Object target) {
+        try {
+            return mField.getShort(target);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public void setShort(Object target, short value) {
+        try {
+            mField.setShort(target, value);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public int getInt(Object target) {
+        try {
+            return mField.getInt(target);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public void setInt(Object target, int value) {
+        try {
+            mField.setInt(target, value);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public long getLong(Object target) {
+        try {
+            return mField.getLong(target);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public void setLong(Object target, long value) {
+        try {
+            mField.setLong(target, value);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public float getFloat(Object target) {
+        try {
+            return mField.getFloat(target);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public void setFloat(Object target, float value) {
+        try {
+            mField.setFloat(target, value);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public double getDouble(Object target) {
+        try {
+            return mField.getDouble(target);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    public void setDouble(Object target, double value) {
+        try {
+            mField.setDouble(target, value);
+        }
+        catch (IllegalAccessException e) {
+            throw accessFailed(e);
+        }
+    }
+
+    private ReflectException accessFailed(IllegalAccessException e) {
+        return new ReflectException("Cannot access " + mField, e);
+    }
+
+    @Override
+    public String toString() {
+        return "FieldAccessor[" + mField + "]";
+    }
+}
@@ -0,0 +1,163 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies every instance field of one class to the field with the same name
+ * and type in another class. The field pairs are matched once per class
+ * pair; a copy is then a loop over the matched pairs with primitive
+ * specialized accessors, so no value is boxed.
+ * <p>
+ * Fields without a counterpart, static fields and final fields of the
+ * target are skipped.
+ */
+public final class FieldCopier {
+
+    private final Class<?> mFrom;
+    private final Class<?> mTo;
+    private final FieldAccessor[] mSources;
+    private final FieldAccessor[] mTargets;
+    private final int[] mTypes;
+
+    private FieldCopier(Class<?> from, Class<?> to) {
+        mFrom = from;
+        mTo = to;
+        Map<String, Field> targets = new HashMap<String, Field>();
+        for (Field field : getInstanceFields(to)) {
+            if (!Modifier.isFinal(field.getModifiers())) {
+                targets.put(field.getName(), field);
+            }
+        }
+        ArrayList<FieldAccessor> sources = new ArrayList<FieldAccessor>();
+        ArrayList<FieldAccessor> matched = new ArrayList<FieldAccessor>();
+        for (Field field : getInstanceFields(from)) {
+            Field target = targets.get(field.getName());
+            if (target != null && target.getType() == field.getType()) {
+                sources.add(FieldAccessor.of(field));
+                matched.add(FieldAccessor.of(target));
+            }
+        }
+        mSources = sources.toArray(new FieldAccessor[sources.size()]);
+        mTargets = matched.toArray(new FieldAccessor[matched.size()]);
+        mTypes = new int[mSources.length];
+        for (int i = 0; i < mSources.length; i++) {
+            mTypes[i] = FieldType.of(mSources[i].getType());
+        }
+    }
+
+    /**
+     * @return the copier for the class pair, created once per pair
+     */
+    public static FieldCopier of(Class<?> from, Class<?> to) {
+        ReflectCache.ClassEntry entry = ReflectCache.getEntry(from);
+        Key key = new Key(to);
+        FieldCopier copier = (FieldCopier) entry.get(key);
+        if (copier == null) {
+            copier = (FieldCopier) entry.putIfAbsent(key, new FieldCopier(from,
+                    to));
+        }
+        return copier;
+    }
+
+    /**
+     * Copy the matched fields.
+     *
+     * @param from
+     *            instance of the source class
+     * @param to
+     *            instance of the target class
+     */
+    public void copy(Object from, Object to) {
+        if (!mFrom.isInstance(from) || !mTo.isInstance(to)) {
+            throw new IllegalArgumentException("Expected " + mFrom.getName()
+                    + " -> " + mTo.getName());
+        }
+        FieldAccessor[] sources = mSources;
+        FieldAccessor[] targets = mTargets;
+        for (int i = 0; i < sources.length; i++) {
+            FieldAccessor s = sources[i];
+            FieldAccessor t = targets[i];
+            switch (mTypes[i]) {
+            case FieldType.BOOLEAN:
+                t.setBoolean(to, s.getBoolean(from));
+                break;
+            case FieldType.BYTE:
+                t.setByte(to, s.getByte(from));
+                break;
+            case FieldType.CHAR:
+                t.setChar(to, s.getChar(from));
+                break;
+            case FieldType.SHORT:
+                t.setShort(to, s.getShort(from));
+                break;
+            case FieldType.INT:
+                t.setInt(to, s.getInt(from));
+                break;
+            case FieldType.LONG:
+                t.setLong(to, s.getLong(from));
+                break;
+            case FieldType.FLOAT:
+                t.setFloat(to, s.getFloat(from));
+                break;
+            case FieldType.DOUBLE:
+                t.setDouble(to, s.getDouble(from));
+                break;
+            default:
+                t.set(to, s.get(from));
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return number of fields copied by {@link #copy(Object, Object)}
+     */
+    public int getFieldCount() {
+        return mSources.length;
+    }
+
+    /**
+     * Instance fields of the class and its super classes; a field hidden by
+     * a subclass field of the same name is left out.
+     */
+    static List<Field> getInstanceFields(Class<?> cls) {
+        ArrayList<Field> fields = new ArrayList<Field>();
+        HashSet<String> names = new HashSet<String>();
+        for (Class<?> c = cls; c != null && c != Object.class; c = c
+                .getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())
+                        || field.isSynthetic()
+                        || !names.add(field.getName())) {
+                    continue;
+                }
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static final class Key {
+        private final Class<?> mTo;
+
+        Key(Class<?> to) {
+            mTo = to;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 + System.identityHashCode(mTo);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).mTo == mTo;
+        }
+    }
+}
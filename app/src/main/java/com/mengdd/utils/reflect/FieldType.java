@@ -0,0 +1,54 @@
+package com.mengdd.utils.reflect;
+
+/**
+ * Small integer codes of field types, for switching to the primitive
+ * specialized {@link FieldAccessor} methods without comparing classes on
+ * every access.
+ */
+public final class FieldType {
+
+    public static final int OBJECT = 0;
+    public static final int BOOLEAN = 1;
+    public static final int BYTE = 2;
+    public static final int CHAR = 3;
+    public static final int SHORT = 4;
+    public static final int INT = 5;
+    public static final int LONG = 6;
+    public static final int FLOAT = 7;
+    public static final int DOUBLE = 8;
+
+    private FieldType() {
+    }
+
+    /**
+     * @return the code of the type, {@link #OBJECT} for any reference type
+     */
+    public static int of(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return OBJECT;
+        }
+        // most common first
+        if (type == int.class) {
+            return INT;
+        }
+        if (type == long.class) {
+            return LONG;
+        }
+        if (type == boolean.class) {
+            return BOOLEAN;
+        }
+        if (type == double.class) {
+            return DOUBLE;
+        }
+        if (type == float.class) {
+            return FLOAT;
+        }
+        if (type == short.class) {
+            return SHORT;
+        }
+        if (type == byte.class) {
+            return BYTE;
+        }
+        return CHAR;
+    }
+}
@@ -0,0 +1,131 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Immutable description of a method, field or constructor. The modifiers
+ * are kept as the {@link Modifier} bit flags.
+ */
+public final class MemberModel {
+
+    public static final int KIND_METHOD = 0;
+    public static final int KIND_FIELD = 1;
+    public static final int KIND_CONSTRUCTOR = 2;
+
+    private static final Class<?>[] NO_TYPES = new Class<?>[0];
+
+    private final int mKind;
+    private final String mName;
+    private final int mModifiers;
+    private final Class<?> mType;
+    private final Class<?>[] mParameterTypes;
+    private final Member mMember;
+
+    private MemberModel(int kind, Member member, Class<?> type,
+            Class<?>[] parameterTypes) {
+        mKind = kind;
+        mName = member.getName();
+        mModifiers = member.getModifiers();
+        mType = type;
+        mParameterTypes = parameterTypes;
+        mMember = member;
+    }
+
+    static MemberModel of(Method method) {
+        return new MemberModel(KIND_METHOD, method, method.getReturnType(),
+                method.getParameterTypes());
+    }
+
+    static MemberModel of(Field field) {
+        return new MemberModel(KIND_FIELD, field, field.getType(), NO_TYPES);
+    }
+
+    static MemberModel of(Constructor<?> constructor) {
+        return new MemberModel(KIND_CONSTRUCTOR, constructor,
+                constructor.getDeclaringClass(),
+                constructor.getParameterTypes());
+    }
+
+    public int getKind() {
+        return mKind;
+    }
+
+    /**
+     * @return the member name, the class name for constructors
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return the {@link Modifier} bit flags
+     */
+    public int getModifiers() {
+        return mModifiers;
+    }
+
+    /**
+     * @return the return type of a method, the type of a field, or the
+     *         declaring class of a constructor
+     */
+    public Class<?> getType() {
+        return mType;
+    }
+
+    public int getParameterCount() {
+        return mParameterTypes.length;
+    }
+
+    public Class<?> getParameterType(int index) {
+        return mParameterTypes[index];
+    }
+
+    /**
+     * @return a copy of the parameter types, empty for fields
+     */
+    public Class<?>[] getParameterTypes() {
+        return mParameterTypes.length == 0 ? mParameterTypes : mParameterTypes
+                .clone();
+    }
+
+    /**
+     * @return the underlying {@link Method}, {@link Field} or
+     *         {@link Constructor}
+     */
+    public Member getMember() {
+        return mMember;
+    }
+
+    public boolean hasModifiers(int flags) {
+        return (mModifiers & flags) == flags;
+    }
+
+    public boolean isPublic() {
+        return Modifier.isPublic(mModifiers);
+    }
+
+    public boolean isPrivate() {
+        return Modifier.isPrivate(mModifiers);
+    }
+
+    public boolean isStatic() {
+        return Modifier.isStatic(mModifiers);
+    }
+
+    public boolean isFinal() {
+        return Modifier.isFinal(mModifiers);
+    }
+
+    public boolean isAbstract() {
+        return Modifier.isAbstract(mModifiers);
+    }
+
+    @Override
+    public String toString() {
+        return mMember.toString();
+    }
+}
@@ -0,0 +1,172 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Reusable invoker of one resolved method.
+ * <p>
+ * The method is looked up and made accessible once, so a call skips the
+ * lookup and the access checks. The fixed arity overloads reuse a per thread
+ * argument array instead of allocating a varargs array on every call.
+ * Exceptions thrown by the method are rethrown unchanged when unchecked and
+ * wrapped in a {@link ReflectException} otherwise.
+ * <p>
+ * java.lang.invoke is not available on the Android versions this library
+ * supports, so the call itself still goes through {@link Method#invoke}.
+ */
+public final class MethodInvoker {
+
+    private static final int MAX_POOLED_ARITY = 4;
+
+    private static final ThreadLocal<Object[][]> ARGS = new ThreadLocal<Object[][]>() {
+        @Override
+        protected Object[][] initialValue() {
+            Object[][] args = new Object[MAX_POOLED_ARITY + 1][];
+            for (int i = 0; i <= MAX_POOLED_ARITY; i++) {
+                args[i] = new Object[i];
+            }
+            return args;
+        }
+    };
+
+    private final Method mMethod;
+    private final int mArity;
+    private final boolean mStatic;
+
+    private MethodInvoker(Method method) {
+        if (!method.isAccessible()) {
+            method.setAccessible(true);
+        }
+        mMethod = method;
+        mArity = method.getParameterTypes().length;
+        mStatic = Modifier.isStatic(method.getModifiers());
+    }
+
+    /**
+     * @return the invoker of the method, created once per method
+     */
+    public static MethodInvoker of(Method method) {
+        ReflectCache.ClassEntry entry = ReflectCache.getEntry(method
+                .getDeclaringClass());
+        MethodInvoker invoker = (MethodInvoker) entry.get(method);
+        if (invoker == null) {
+            invoker = (MethodInvoker) entry.putIfAbsent(method,
+                    new MethodInvoker(method));
+        }
+        return invoker;
+    }
+
+    public Method getMethod() {
+        return mMethod;
+    }
+
+    public int getArity() {
+        return mArity;
+    }
+
+    public boolean isStatic() {
+        return mStatic;
+    }
+
+    /**
+     * @param target
+     *            the receiver, ignored for static methods
+     */
+    public Object invoke(Object target) {
+        return call(target, ARGS.get()[0]);
+    }
+
+    public Object invoke(Object target, Object arg0) {
+        Object[] args = ARGS.get()[1];
+        args[0] = arg0;
+        try {
+            return call(target, args);
+        }
+        finally {
+            args[0] = null;
+        }
+    }
+
+    public Object invoke(Object target, Object arg0, Object arg1) {
+        Object[] args = ARGS.get()[2];
+        args[0] = arg0;
+        args[1] = arg1;
+        try {
+            return call(target, args);
+        }
+        finally {
+            args[0] = null;
+            args[1] = null;
+        }
+    }
+
+    public Object invoke(Object target, Object arg0, Object arg1, Object arg2) {
+        Object[] args = ARGS.get()[3];
+        args[0] = arg0;
+        args[1] = arg1;
+        args[2] = arg2;
+        try {
+            return call(target, args);
+        }
+        finally {
+            args[0] = null;
+            args[1] = null;
+            args[2] = null;
+        }
+    }
+
+    public Object invoke(Object target, Object arg0, Object arg1, Object arg2,
+            Object arg3) {
+        Object[] args = ARGS.get()[4];
+        args[0] = arg0;
+        args[1] = arg1;
+        args[2] = arg2;
+        args[3] = arg3;
+        try {
+            return call(target, args);
+        }
+        finally {
+            args[0] = null;
+            args[1] = null;
+            args[2] = null;
+            args[3] = null;
+        }
+    }
+
+    /**
+     * Call with an argument array of any length. The array is not retained.
+     */
+    public Object invokeWithArgs(Object target, Object[] args) {
+        return call(target, args);
+    }
+
+    private Object call(Object target, Object[] args) {
+        long start = ReflectMetrics.start();
+        try {
+            return mMethod.invoke(mStatic ? null : target, args);
+        }
+        catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ReflectException(mMethod + " threw " + cause, cause);
+        }
+        catch (IllegalAccessException e) {
+            throw new ReflectException("Cannot access " + mMethod, e);
+        }
+        finally {
+            ReflectMetrics.recordInvocation(mMethod, start);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MethodInvoker[" + mMethod + "]";
+    }
+}
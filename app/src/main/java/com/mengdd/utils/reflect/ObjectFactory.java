@@ -0,0 +1,15 @@
+package com.mengdd.utils.reflect;
+
+/**
+ * Creates instances of T, like java.util.function.Supplier which is not
+ * available on the Android versions this library supports.
+ */
+public interface ObjectFactory<T> {
+
+    /**
+     * @return a new instance
+     * @throws ReflectException
+     *             if the instance cannot be created
+     */
+    T create();
+}
@@ -0,0 +1,386 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent cache of resolved {@link Class}, {@link Method},
+ * {@link Constructor} and {@link Field} objects, keyed by class, member name
+ * and parameter types.
+ * <p>
+ * The cached members of a class reference the class, and through it its
+ * class loader, so how they are held depends on the loader. Entries of
+ * classes defined by the loader of this class or one of its parents, which
+ * cannot be unloaded before this cache, are held strongly. Entries of
+ * classes of other loaders, such as plugin loaders, are held weakly under a
+ * weak class key, so they never keep the loader from being unloaded; they
+ * are resolved again after a GC, callers dispatching into such classes in a
+ * loop should keep a {@link MethodInvoker} or {@link StaticDispatchTable}.
+ * Declared members are returned with {@link AccessibleObject#setAccessible}
+ * already applied.
+ */
+public final class ReflectCache {
+
+    private static final ConcurrentHashMap<String, WeakReference<Class<?>>> CLASSES = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+
+    /** Loaders living as long as this class, see {@link #isPermanent}. */
+    private static final ClassLoader[] PERMANENT_LOADERS = permanentLoaders();
+
+    private static final ConcurrentHashMap<Class<?>, ClassEntry> PERMANENT_ENTRIES = new ConcurrentHashMap<Class<?>, ClassEntry>();
+
+    private static final ConcurrentHashMap<ClassRef, WeakReference<ClassEntry>> ENTRIES = new ConcurrentHashMap<ClassRef, WeakReference<ClassEntry>>();
+
+    private static final ReferenceQueue<Class<?>> QUEUE = new ReferenceQueue<Class<?>>();
+
+    private static final int KIND_METHOD = 0;
+    private static final int KIND_DECLARED_METHOD = 1;
+    private static final int KIND_CONSTRUCTOR = 2;
+    private static final int KIND_DECLARED_FIELD = 3;
+
+    private ReflectCache() {
+    }
+
+    /**
+     * Cached {@link Class#forName(String)}.
+     */
+    public static Class<?> forName(String className)
+            throws ClassNotFoundException {
+        WeakReference<Class<?>> ref = CLASSES.get(className);
+        Class<?> clazz = ref == null ? null : ref.get();
+        if (clazz == null) {
+            long start = ReflectMetrics.start();
+            clazz = Class.forName(className);
+            CLASSES.put(className, new WeakReference<Class<?>>(clazz));
+            ReflectMetrics.recordMiss(clazz, start);
+        }
+        else {
+            ReflectMetrics.recordHit(clazz);
+        }
+        return clazz;
+    }
+
+    /**
+     * Cached {@link Class#getMethod(String, Class...)}, public methods
+     * including inherited ones.
+     */
+    public static Method getMethod(Class<?> clazz, String name,
+            Class<?>... paramTypes) throws NoSuchMethodException {
+        MemberKey key = new MemberKey(KIND_METHOD, name, paramTypes);
+        ClassEntry entry = getEntry(clazz);
+        Method method = (Method) entry.get(key);
+        if (method == null) {
+            long start = ReflectMetrics.start();
+            method = clazz.getMethod(name, paramTypes);
+            entry.put(key.copy(), method);
+            ReflectMetrics.recordMiss(method, start);
+        }
+        else {
+            ReflectMetrics.recordHit(method);
+        }
+        return method;
+    }
+
+    /**
+     * Cached {@link Class#getDeclaredMethod(String, Class...)}, made
+     * accessible.
+     */
+    public static Method getDeclaredMethod(Class<?> clazz, String name,
+            Class<?>... paramTypes) throws NoSuchMethodException {
+        MemberKey key = new MemberKey(KIND_DECLARED_METHOD, name, paramTypes);
+        ClassEntry entry = getEntry(clazz);
+        Method method = (Method) entry.get(key);
+        if (method == null) {
+            long start = ReflectMetrics.start();
+            method = clazz.getDeclaredMethod(name, paramTypes);
+            method.setAccessible(true);
+            entry.put(key.copy(), method);
+            ReflectMetrics.recordMiss(method, start);
+        }
+        else {
+            ReflectMetrics.recordHit(method);
+        }
+        return method;
+    }
+
+    /**
+     * Cached {@link Class#getDeclaredConstructor(Class...)}, made accessible.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Constructor<T> getConstructor(Class<T> clazz,
+            Class<?>... paramTypes) throws NoSuchMethodException {
+        MemberKey key = new MemberKey(KIND_CONSTRUCTOR, "<init>", paramTypes);
+        ClassEntry entry = getEntry(clazz);
+        Constructor<T> constructor = (Constructor<T>) entry.get(key);
+        if (constructor == null) {
+            long start = ReflectMetrics.start();
+            constructor = clazz.getDeclaredConstructor(paramTypes);
+            constructor.setAccessible(true);
+            entry.put(key.copy(), constructor);
+            ReflectMetrics.recordMiss(constructor, start);
+        }
+        else {
+            ReflectMetrics.recordHit(constructor);
+        }
+        return constructor;
+    }
+
+    /**
+     * Cached {@link Class#getDeclaredField(String)}, made accessible.
+     */
+    public static Field getDeclaredField(Class<?> clazz, String name)
+            throws NoSuchFieldException {
+        MemberKey key = new MemberKey(KIND_DECLARED_FIELD, name, null);
+        ClassEntry entry = getEntry(clazz);
+        Field field = (Field) entry.get(key);
+        if (field == null) {
+            long start = ReflectMetrics.start();
+            field = clazz.getDeclaredField(name);
+            field.setAccessible(true);
+            entry.put(key.copy(), field);
+            ReflectMetrics.recordMiss(field, start);
+        }
+        else {
+            ReflectMetrics.recordHit(field);
+        }
+        return field;
+    }
+
+    /**
+     * Value derived from a class by a helper outside this package, cached
+     * with the members of the class and dropped with them.
+     *
+     * @param key
+     *            private to the caller, compared with equals
+     * @return the value, or null if none was stored or it was dropped
+     */
+    public static Object getClassValue(Class<?> clazz, Object key) {
+        return getEntry(clazz).get(key);
+    }
+
+    /**
+     * @return the value now associated with the key, which is the given one
+     *         unless another thread stored one first
+     */
+    public static Object putClassValue(Class<?> clazz, Object key, Object value) {
+        return getEntry(clazz).putIfAbsent(key, value);
+    }
+
+    /**
+     * Drop everything, for tests.
+     */
+    public static void clear() {
+        CLASSES.clear();
+        PERMANENT_ENTRIES.clear();
+        ENTRIES.clear();
+    }
+
+    /**
+     * Per class storage, also used by the other helpers of this package to
+     * cache what they derive from a class.
+     */
+    static ClassEntry getEntry(Class<?> clazz) {
+        if (isPermanent(clazz.getClassLoader())) {
+            ClassEntry entry = PERMANENT_ENTRIES.get(clazz);
+            if (entry == null) {
+                ClassEntry created = new ClassEntry();
+                entry = PERMANENT_ENTRIES.putIfAbsent(clazz, created);
+                if (entry == null) {
+                    entry = created;
+                }
+            }
+            return entry;
+        }
+        LookupRef lookup = new LookupRef(clazz);
+        ClassEntry created = null;
+        WeakReference<ClassEntry> createdRef = null;
+        while (true) {
+            WeakReference<ClassEntry> ref = ENTRIES.get(lookup);
+            ClassEntry entry = ref == null ? null : ref.get();
+            if (entry != null) {
+                return entry;
+            }
+            if (created == null) {
+                expungeStaleEntries();
+                created = new ClassEntry();
+                createdRef = new WeakReference<ClassEntry>(created);
+            }
+            // absent, or collected: replace only what was seen, so threads
+            // racing on the class share one entry
+            if (ref == null ? ENTRIES.putIfAbsent(new WeakClassRef(clazz,
+                    QUEUE), createdRef) == null : ENTRIES.replace(lookup, ref,
+                    createdRef)) {
+                return created;
+            }
+        }
+    }
+
+    /**
+     * @return whether classes of the loader stay loaded as long as this
+     *         class: the boot loader, the loader of this class and its
+     *         parents
+     */
+    private static boolean isPermanent(ClassLoader loader) {
+        if (loader == null) {
+            return true;
+        }
+        for (ClassLoader permanent : PERMANENT_LOADERS) {
+            if (permanent == loader) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ClassLoader[] permanentLoaders() {
+        ArrayList<ClassLoader> loaders = new ArrayList<ClassLoader>();
+        ClassLoader loader = ReflectCache.class.getClassLoader();
+        while (loader != null) {
+            loaders.add(loader);
+            loader = loader.getParent();
+        }
+        return loaders.toArray(new ClassLoader[loaders.size()]);
+    }
+
+    private static void expungeStaleEntries() {
+        Reference<? extends Class<?>> ref;
+        while ((ref = QUEUE.poll()) != null) {
+            ENTRIES.remove(ref);
+        }
+    }
+
+    static class ClassEntry {
+        private final ConcurrentHashMap<Object, Object> mValues = new ConcurrentHashMap<Object, Object>();
+
+        Object get(Object key) {
+            return mValues.get(key);
+        }
+
+        void put(Object key, Object value) {
+            mValues.put(key, value);
+        }
+
+        /**
+         * @return the value now associated with the key, which is the given
+         *         one unless another thread stored one first
+         */
+        Object putIfAbsent(Object key, Object value) {
+            Object previous = mValues.putIfAbsent(key, value);
+            return previous != null ? previous : value;
+        }
+    }
+
+    private static final class MemberKey {
+        private final int mKind;
+        private final String mName;
+        private final Class<?>[] mParamTypes;
+        private final int mHash;
+
+        MemberKey(int kind, String name, Class<?>[] paramTypes) {
+            mKind = kind;
+            mName = name;
+            mParamTypes = paramTypes == null || paramTypes.length == 0 ? null
+                    : paramTypes;
+            mHash = 31 * (31 * kind + name.hashCode())
+                    + Arrays.hashCode(mParamTypes);
+        }
+
+        /**
+         * @return a key owning its parameter types, to be stored; lookups
+         *         use the caller's array, which it may change afterwards
+         */
+        MemberKey copy() {
+            return mParamTypes == null ? this : new MemberKey(mKind, mName,
+                    mParamTypes.clone());
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MemberKey)) {
+                return false;
+            }
+            MemberKey other = (MemberKey) o;
+            return mHash == other.mHash && mKind == other.mKind
+                    && mName.equals(other.mName)
+                    && Arrays.equals(mParamTypes, other.mParamTypes);
+        }
+    }
+
+    /**
+     * Identity based key of a class, equal across the weak and lookup
+     * variants.
+     */
+    private interface ClassRef {
+        Class<?> getClassRef();
+    }
+
+    private static final class WeakClassRef extends WeakReference<Class<?>>
+            implements ClassRef {
+        private final int mHash;
+
+        WeakClassRef(Class<?> clazz, ReferenceQueue<Class<?>> queue) {
+            super(clazz, queue);
+            mHash = System.identityHashCode(clazz);
+        }
+
+        @Override
+        public Class<?> getClassRef() {
+            return get();
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClassRef)) {
+                return false;
+            }
+            Class<?> clazz = get();
+            return clazz != null && clazz == ((ClassRef) o).getClassRef();
+        }
+    }
+
+    private static final class LookupRef implements ClassRef {
+        private final Class<?> mClass;
+
+        LookupRef(Class<?> clazz) {
+            mClass = clazz;
+        }
+
+        @Override
+        public Class<?> getClassRef() {
+            return mClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mClass);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ClassRef && ((ClassRef) o).getClassRef() == mClass;
+        }
+    }
+}
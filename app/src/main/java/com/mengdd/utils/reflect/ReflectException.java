@@ -0,0 +1,20 @@
+package com.mengdd.utils.reflect;
+
+/**
+ * Unchecked failure of a reflective lookup or call. The cause is the original
+ * exception of the lookup ({@link ClassNotFoundException},
+ * {@link NoSuchMethodException}, ...) or the checked exception thrown by the
+ * invoked member.
+ */
+public class ReflectException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ReflectException(String message) {
+        super(message);
+    }
+
+    public ReflectException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
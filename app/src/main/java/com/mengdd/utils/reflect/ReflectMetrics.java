@@ -0,0 +1,276 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Optional counters and latency histograms of the reflective lookups and
+ * calls made through this package, per resolved class or member.
+ * <p>
+ * Off by default. When off, every hook costs one volatile read. When on,
+ * the classes and members seen are held strongly until {@link #reset()}, so
+ * this is meant for profiling builds, not to be left on.
+ * <p>
+ * Lookups count cache hits and misses, and the time spent resolving a miss.
+ * Calls through {@link MethodInvoker}, {@link ConstructorFactory},
+ * {@link StaticDispatchTable} and ReflectUtils are counted and timed; the
+ * durations include the time spent in the called method itself. Calls
+ * through a registered {@link StaticInvoker} are counted under the
+ * registry key of the method, as in "com.example.Foo#bar(int)".
+ */
+public final class ReflectMetrics {
+
+    /** Returned by {@link #start()} when metrics are off. */
+    static final long NOT_TIMED = Long.MIN_VALUE;
+
+    /** Bucket i counts durations in [2^(i-1), 2^i) ns, the last one is open. */
+    public static final int HISTOGRAM_BUCKETS = 40;
+
+    private static volatile boolean sEnabled;
+
+    private static final ConcurrentHashMap<Object, Stats> STATS = new ConcurrentHashMap<Object, Stats>();
+
+    private ReflectMetrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Drop everything recorded so far.
+     */
+    public static void reset() {
+        STATS.clear();
+    }
+
+    /**
+     * @param n
+     * @return the n members with the highest total time, lookups and calls
+     *         together, most expensive first
+     */
+    public static List<Snapshot> getTop(int n) {
+        ArrayList<Snapshot> snapshots = new ArrayList<Snapshot>(STATS.size());
+        for (Stats stats : STATS.values()) {
+            snapshots.add(stats.snapshot());
+        }
+        Collections.sort(snapshots, new Comparator<Snapshot>() {
+            @Override
+            public int compare(Snapshot lhs, Snapshot rhs) {
+                long l = lhs.getTotalNanos();
+                long r = rhs.getTotalNanos();
+                if (l != r) {
+                    return l > r ? -1 : 1;
+                }
+                return lhs.invocations > rhs.invocations ? -1
+                        : (lhs.invocations == rhs.invocations ? 0 : 1);
+            }
+        });
+        if (snapshots.size() > n) {
+            return new ArrayList<Snapshot>(snapshots.subList(0, n));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Public for ReflectUtils, which calls methods directly.
+     *
+     * @return the start time to pass to the record methods
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    static void recordHit(Object member) {
+        if (sEnabled) {
+            Stats stats = stats(member);
+            stats.lookups.incrementAndGet();
+            stats.hits.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param start
+     *            from {@link #start()} before resolving the member
+     */
+    static void recordMiss(Object member, long start) {
+        if (start != NOT_TIMED) {
+            long nanos = System.nanoTime() - start;
+            Stats stats = stats(member);
+            stats.lookups.incrementAndGet();
+            stats.misses.incrementAndGet();
+            stats.missNanos.addAndGet(nanos);
+        }
+    }
+
+    /**
+     * @param member
+     * @param start
+     *            from {@link #start()} before the call
+     */
+    public static void recordInvocation(Member member, long start) {
+        recordInvocation((Object) member, start);
+    }
+
+    private static void recordInvocation(Object member, long start) {
+        if (start != NOT_TIMED) {
+            long nanos = System.nanoTime() - start;
+            Stats stats = stats(member);
+            stats.invocations.incrementAndGet();
+            stats.invocationNanos.addAndGet(nanos);
+            stats.histogram.incrementAndGet(bucket(nanos));
+            long max;
+            while (nanos > (max = stats.maxNanos.get())
+                    && !stats.maxNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+        }
+    }
+
+    /**
+     * For calls through a {@link StaticInvoker} from {@link ReflectRegistry},
+     * which has no Member. The name is only built when timed.
+     *
+     * @param start
+     *            from {@link #start()} before the call
+     */
+    public static void recordInvocation(String className, String methodName,
+            Class<?>[] paramTypes, long start) {
+        if (start != NOT_TIMED) {
+            recordInvocation(
+                    ReflectRegistry.methodKey(className, methodName,
+                            paramTypes), start);
+        }
+    }
+
+    private static Stats stats(Object member) {
+        Stats stats = STATS.get(member);
+        if (stats == null) {
+            Stats created = new Stats(member);
+            stats = STATS.putIfAbsent(member, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    static int bucket(long nanos) {
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, nanos));
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    private static class Stats {
+        final String name;
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong missNanos = new AtomicLong();
+        final AtomicLong invocations = new AtomicLong();
+        final AtomicLong invocationNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+        Stats(Object member) {
+            name = member instanceof Class ? "class "
+                    + ((Class<?>) member).getName() : member.toString();
+        }
+
+        Snapshot snapshot() {
+            long[] buckets = new long[HISTOGRAM_BUCKETS];
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                buckets[i] = histogram.get(i);
+            }
+            return new Snapshot(name, lookups.get(), hits.get(), misses.get(),
+                    missNanos.get(), invocations.get(), invocationNanos.get(),
+                    maxNanos.get(), buckets);
+        }
+    }
+
+    /**
+     * Counters of one class or member at the time of
+     * {@link ReflectMetrics#getTop(int)}.
+     */
+    public static final class Snapshot {
+        /** the member, as Member.toString(), or "class name" */
+        public final String name;
+        public final long lookups;
+        public final long hits;
+        public final long misses;
+        /** total time resolving cache misses */
+        public final long missNanos;
+        public final long invocations;
+        /** total time of the calls */
+        public final long invocationNanos;
+        public final long maxInvocationNanos;
+        private final long[] mHistogram;
+
+        Snapshot(String name, long lookups, long hits, long misses,
+                long missNanos, long invocations, long invocationNanos,
+                long maxInvocationNanos, long[] histogram) {
+            this.name = name;
+            this.lookups = lookups;
+            this.hits = hits;
+            this.misses = misses;
+            this.missNanos = missNanos;
+            this.invocations = invocations;
+            this.invocationNanos = invocationNanos;
+            this.maxInvocationNanos = maxInvocationNanos;
+            mHistogram = histogram;
+        }
+
+        public long getTotalNanos() {
+            return missNanos + invocationNanos;
+        }
+
+        public long getMeanInvocationNanos() {
+            return invocations == 0 ? 0 : invocationNanos / invocations;
+        }
+
+        /**
+         * @param fraction
+         *            between 0 and 1, 0.99 for the 99th percentile
+         * @return upper bound of the histogram bucket holding the percentile,
+         *         accurate within a factor of 2
+         */
+        public long getInvocationPercentileNanos(double fraction) {
+            long rank = (long) Math.ceil(fraction * invocations);
+            long seen = 0;
+            for (int i = 0; i < mHistogram.length; i++) {
+                seen += mHistogram[i];
+                if (seen >= rank && seen > 0) {
+                    return i == mHistogram.length - 1 ? maxInvocationNanos
+                            : Math.min(1L << i, maxInvocationNanos);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return calls per bucket, see {@link ReflectMetrics#HISTOGRAM_BUCKETS}
+         */
+        public long[] getHistogram() {
+            return mHistogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            return name + ": lookups " + lookups + " (hits " + hits
+                    + ", misses " + misses + ", " + missNanos / 1000
+                    + "us), calls " + invocations + " (" + invocationNanos
+                    / 1000 + "us, mean " + getMeanInvocationNanos() / 1000
+                    + "us, p99 " + getInvocationPercentileNanos(0.99) / 1000
+                    + "us, max " + maxInvocationNanos / 1000 + "us)";
+        }
+    }
+}
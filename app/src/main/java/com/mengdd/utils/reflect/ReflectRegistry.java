@@ -0,0 +1,129 @@
+package com.mengdd.utils.reflect;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Factories and static method invokers registered ahead of time, consulted
+ * by ReflectUtils before falling back to runtime reflection.
+ * <p>
+ * The registry generated at compile time for {@link Reflective} classes is
+ * loaded on first use. Entries can also be added by hand with
+ * {@link #registerFactory(String, ObjectFactory)} and
+ * {@link #registerStaticMethod(String, String, Class[], StaticInvoker)}.
+ */
+public final class ReflectRegistry {
+
+    /** Class generated by the annotation processor. */
+    public static final String GENERATED_REGISTRY = "com.mengdd.utils.reflect.GeneratedReflectRegistry";
+
+    /**
+     * Implemented by the generated registry class.
+     */
+    public interface Loader {
+        void load();
+    }
+
+    private static final ConcurrentHashMap<String, ObjectFactory<?>> FACTORIES = new ConcurrentHashMap<String, ObjectFactory<?>>();
+    private static final ConcurrentHashMap<String, StaticInvoker> STATIC_METHODS = new ConcurrentHashMap<String, StaticInvoker>();
+
+    private static volatile boolean sLoaded;
+
+    private ReflectRegistry() {
+    }
+
+    public static void registerFactory(String className,
+            ObjectFactory<?> factory) {
+        FACTORIES.put(className, factory);
+    }
+
+    /**
+     * @param className
+     * @param methodName
+     * @param paramTypes
+     *            parameter types of the method, null or empty if none
+     * @param invoker
+     */
+    public static void registerStaticMethod(String className,
+            String methodName, Class<?>[] paramTypes, StaticInvoker invoker) {
+        STATIC_METHODS.put(methodKey(className, methodName, paramTypes),
+                invoker);
+    }
+
+    /**
+     * Used by the generated registry, the parameter types are given as
+     * {@link Class#getName()} strings.
+     */
+    public static void registerStaticMethod(String className,
+            String methodName, String[] paramTypeNames, StaticInvoker invoker) {
+        StringBuilder key = new StringBuilder(className).append('#')
+                .append(methodName).append('(');
+        for (int i = 0; i < paramTypeNames.length; i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(paramTypeNames[i]);
+        }
+        STATIC_METHODS.put(key.append(')').toString(), invoker);
+    }
+
+    /**
+     * @return the registered factory of the class, or null
+     */
+    public static ObjectFactory<?> getFactory(String className) {
+        ensureLoaded();
+        return FACTORIES.isEmpty() ? null : FACTORIES.get(className);
+    }
+
+    /**
+     * @return the registered invoker of the static method, or null
+     */
+    public static StaticInvoker getStaticMethod(String className,
+            String methodName, Class<?>[] paramTypes) {
+        ensureLoaded();
+        if (STATIC_METHODS.isEmpty()) {
+            return null;
+        }
+        return STATIC_METHODS.get(methodKey(className, methodName, paramTypes));
+    }
+
+    static String methodKey(String className, String methodName,
+            Class<?>[] paramTypes) {
+        StringBuilder key = new StringBuilder(className).append('#')
+                .append(methodName).append('(');
+        if (paramTypes != null) {
+            for (int i = 0; i < paramTypes.length; i++) {
+                if (i > 0) {
+                    key.append(',');
+                }
+                key.append(paramTypes[i].getName());
+            }
+        }
+        return key.append(')').toString();
+    }
+
+    private static void ensureLoaded() {
+        if (!sLoaded) {
+            load();
+        }
+    }
+
+    private static synchronized void load() {
+        if (sLoaded) {
+            return;
+        }
+        try {
+            Class<?> cls = Class.forName(GENERATED_REGISTRY);
+            ((Loader) cls.newInstance()).load();
+        }
+        catch (ClassNotFoundException e) {
+            // no Reflective classes, or the processor is not used
+        }
+        catch (InstantiationException e) {
+            e.printStackTrace();
+        }
+        catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        sLoaded = true;
+    }
+}
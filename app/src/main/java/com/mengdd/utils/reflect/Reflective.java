@@ -0,0 +1,22 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class that is created or called by name through ReflectUtils. When
+ * the processor module is on the compile classpath, a factory for its public
+ * no-arg constructor and an invoker for each of its public static methods
+ * are generated into {@link ReflectRegistry#GENERATED_REGISTRY}, and
+ * ReflectUtils uses them instead of runtime reflection.
+ * <p>
+ * The class and its enclosing classes must be public.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Reflective {
+}
@@ -0,0 +1,299 @@
+package com.mengdd.utils.reflect;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Public static methods of a class indexed by name and number of
+ * parameters, for dispatching commands by method name.
+ * <p>
+ * The index is an open addressed table whose size is chosen so the names of
+ * the class do not collide, so a lookup is one hash and usually one probe.
+ * Each slot holds the prebuilt invoker of the method: the generated one for
+ * {@link Reflective} classes, a {@link MethodInvoker} otherwise. Overloads
+ * with the same name and number of parameters are told apart by the runtime
+ * types of the arguments.
+ * <p>
+ * Exceptions thrown by the method are rethrown unchanged when unchecked and
+ * wrapped in a {@link ReflectException} otherwise.
+ */
+public final class StaticDispatchTable {
+
+    private static final Object CACHE_KEY = new Object();
+
+    /** The table is grown at most to this many slots per method. */
+    private static final int MAX_SLOTS_PER_METHOD = 8;
+
+    private final Class<?> mClass;
+    private final Entry[] mTable;
+    private final int mMask;
+    private final int mSize;
+
+    private StaticDispatchTable(Class<?> cls) {
+        mClass = cls;
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        for (MemberModel model : ClassModel.of(cls).getMethods()) {
+            if (!model.isStatic() || !model.isPublic()) {
+                continue;
+            }
+            Method method = (Method) model.getMember();
+            Entry entry = new Entry(method, ReflectRegistry.getStaticMethod(
+                    cls.getName(), method.getName(),
+                    method.getParameterTypes()));
+            Entry same = find(entries, entry.name, entry.arity);
+            if (same != null) {
+                entry.nextOverload = same.nextOverload;
+                same.nextOverload = entry;
+            }
+            else {
+                entries.add(entry);
+            }
+        }
+        mSize = entries.size();
+        mTable = buildTable(entries);
+        mMask = mTable.length - 1;
+    }
+
+    /**
+     * @return the table of the class, built once per class
+     */
+    public static StaticDispatchTable of(Class<?> cls) {
+        ReflectCache.ClassEntry entry = ReflectCache.getEntry(cls);
+        StaticDispatchTable table = (StaticDispatchTable) entry.get(CACHE_KEY);
+        if (table == null) {
+            table = (StaticDispatchTable) entry.putIfAbsent(CACHE_KEY,
+                    new StaticDispatchTable(cls));
+        }
+        return table;
+    }
+
+    /**
+     * @throws ClassNotFoundException
+     */
+    public static StaticDispatchTable of(String className)
+            throws ClassNotFoundException {
+        return of(ReflectCache.forName(className));
+    }
+
+    public Class<?> getDispatchClass() {
+        return mClass;
+    }
+
+    /**
+     * @return number of distinct name and parameter count pairs
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean contains(String name, int arity) {
+        return lookup(name, arity) != null;
+    }
+
+    /**
+     * @return the methods with the name and number of parameters, empty if
+     *         none
+     */
+    public List<Method> getMethods(String name, int arity) {
+        ArrayList<Method> methods = new ArrayList<Method>();
+        for (Entry e = lookup(name, arity); e != null; e = e.nextOverload) {
+            methods.add(e.method);
+        }
+        return methods;
+    }
+
+    /**
+     * Call the public static method with the name and as many parameters as
+     * arguments given.
+     *
+     * @param name
+     * @param args
+     *            primitives boxed
+     * @return the result, boxed, or null for void methods
+     * @throws ReflectException
+     *             if there is no such method, or the method threw a checked
+     *             exception
+     */
+    public Object dispatch(String name, Object... args) {
+        int arity = args == null ? 0 : args.length;
+        Entry entry = lookup(name, arity);
+        if (entry == null) {
+            throw new ReflectException("No public static method " + name
+                    + " with " + arity + " parameters in " + mClass.getName());
+        }
+        if (entry.nextOverload != null) {
+            entry = select(entry, args);
+        }
+        return entry.call(args);
+    }
+
+    private Entry lookup(String name, int arity) {
+        int i = hash(name, arity) & mMask;
+        Entry entry;
+        while ((entry = mTable[i]) != null) {
+            if (entry.arity == arity && entry.name.equals(name)) {
+                return entry;
+            }
+            i = (i + 1) & mMask;
+        }
+        return null;
+    }
+
+    private Entry select(Entry first, Object[] args) {
+        for (Entry e = first; e != null; e = e.nextOverload) {
+            if (e.accepts(args)) {
+                return e;
+            }
+        }
+        throw new ReflectException("No overload of " + first.name + " in "
+                + mClass.getName() + " accepts the arguments");
+    }
+
+    private static Entry find(List<Entry> entries, String name, int arity) {
+        for (Entry entry : entries) {
+            if (entry.arity == arity && entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Smallest power of two table, at least twice the entry count, in which
+     * no two entries share a slot; linear probing handles the rest if none
+     * is found within the size limit.
+     */
+    private static Entry[] buildTable(List<Entry> entries) {
+        int count = entries.size();
+        int capacity = 2;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        int maxCapacity = Math.max(capacity, Integer.highestOneBit(Math.max(1,
+                count * MAX_SLOTS_PER_METHOD)) << 1);
+        for (int c = capacity; c <= maxCapacity; c <<= 1) {
+            if (isCollisionFree(entries, c)) {
+                capacity = c;
+                break;
+            }
+        }
+        Entry[] table = new Entry[capacity];
+        int mask = capacity - 1;
+        for (Entry entry : entries) {
+            int i = entry.hash & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = entry;
+        }
+        return table;
+    }
+
+    private static boolean isCollisionFree(List<Entry> entries, int capacity) {
+        boolean[] used = new boolean[capacity];
+        int mask = capacity - 1;
+        for (Entry entry : entries) {
+            int i = entry.hash & mask;
+            if (used[i]) {
+                return false;
+            }
+            used[i] = true;
+        }
+        return true;
+    }
+
+    private static int hash(String name, int arity) {
+        int h = name.hashCode() * 31 + arity;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Entry {
+        final String name;
+        final int arity;
+        final int hash;
+        final Method method;
+        final Class<?>[] paramTypes;
+        final MethodInvoker invoker;
+        final StaticInvoker generated;
+        Entry nextOverload;
+
+        Entry(Method method, StaticInvoker generated) {
+            this.method = method;
+            this.name = method.getName();
+            this.paramTypes = method.getParameterTypes();
+            this.arity = paramTypes.length;
+            this.hash = hash(name, arity);
+            this.generated = generated;
+            this.invoker = generated == null ? MethodInvoker.of(method) : null;
+        }
+
+        Object call(Object[] args) {
+            if (invoker != null) {
+                return invoker.invokeWithArgs(null, args);
+            }
+            long start = ReflectMetrics.start();
+            try {
+                return generated.invoke(args);
+            }
+            catch (RuntimeException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new ReflectException(method + " threw " + e, e);
+            }
+            finally {
+                ReflectMetrics.recordInvocation(method, start);
+            }
+        }
+
+        /**
+         * @return true if every argument is an instance of the parameter
+         *         type, or of its wrapper for primitives; widening is not
+         *         considered
+         */
+        boolean accepts(Object[] args) {
+            for (int i = 0; i < arity; i++) {
+                Object arg = args[i];
+                Class<?> type = paramTypes[i];
+                if (arg == null) {
+                    if (type.isPrimitive()) {
+                        return false;
+                    }
+                }
+                else if (!wrap(type).isInstance(arg)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static Class<?> wrap(Class<?> type) {
+            if (!type.isPrimitive()) {
+                return type;
+            }
+            if (type == int.class) {
+                return Integer.class;
+            }
+            if (type == long.class) {
+                return Long.class;
+            }
+            if (type == boolean.class) {
+                return Boolean.class;
+            }
+            if (type == double.class) {
+                return Double.class;
+            }
+            if (type == float.class) {
+                return Float.class;
+            }
+            if (type == short.class) {
+                return Short.class;
+            }
+            if (type == byte.class) {
+                return Byte.class;
+            }
+            return Character.class;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.mengdd.utils.reflect;
+
+/**
+ * Calls one static method with its arguments in an array, generated for
+ * {@link Reflective} classes.
+ */
+public interface StaticInvoker {
+
+    /**
+     * @param args
+     *            the arguments, primitives boxed
+     * @return the result, boxed, or null for void methods
+     * @throws Exception
+     *             whatever the method throws
+     */
+    Object invoke(Object[] args) throws Exception;
+}
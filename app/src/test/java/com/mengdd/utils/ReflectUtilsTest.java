@@ -0,0 +1,98 @@
+package com.mengdd.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.mengdd.utils.reflect.ReflectMetrics;
+import com.mengdd.utils.reflect.ReflectRegistry;
+import com.mengdd.utils.reflect.StaticInvoker;
+
+public class ReflectUtilsTest {
+
+    private static final IllegalStateException UNCHECKED = new IllegalStateException();
+    private static final IOException CHECKED = new IOException();
+
+    public static final class Target {
+        public static void throwUnchecked() {
+            throw UNCHECKED;
+        }
+
+        public static void throwChecked() throws IOException {
+            throw CHECKED;
+        }
+
+        public static void registered() throws IOException {
+            throw CHECKED;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        ReflectMetrics.setEnabled(false);
+        ReflectMetrics.reset();
+    }
+
+    @Test
+    public void reflectivePathWrapsExceptions() throws Exception {
+        assertWraps("throwUnchecked", UNCHECKED);
+        assertWraps("throwChecked", CHECKED);
+    }
+
+    @Test
+    public void registryPathWrapsExceptions() throws Exception {
+        final Exception[] thrown = new Exception[1];
+        ReflectRegistry.registerStaticMethod(Target.class.getName(),
+                "registered", (Class<?>[]) null, new StaticInvoker() {
+                    @Override
+                    public Object invoke(Object[] args) throws Exception {
+                        throw thrown[0];
+                    }
+                });
+
+        thrown[0] = UNCHECKED;
+        assertWraps("registered", UNCHECKED);
+        thrown[0] = CHECKED;
+        assertWraps("registered", CHECKED);
+    }
+
+    @Test
+    public void registryPathRecordsMetrics() throws Exception {
+        ReflectRegistry.registerStaticMethod(Target.class.getName(),
+                "registered", (Class<?>[]) null, new StaticInvoker() {
+                    @Override
+                    public Object invoke(Object[] args) {
+                        return null;
+                    }
+                });
+        ReflectMetrics.setEnabled(true);
+
+        ReflectUtils.invokePublicStaticMethod(Target.class.getName(),
+                "registered", null, null);
+
+        List<ReflectMetrics.Snapshot> top = ReflectMetrics.getTop(10);
+        assertEquals(1, top.size());
+        assertEquals(Target.class.getName() + "#registered()",
+                top.get(0).name);
+        assertEquals(1, top.get(0).invocations);
+    }
+
+    private static void assertWraps(String methodName, Exception expected)
+            throws Exception {
+        try {
+            ReflectUtils.invokePublicStaticMethod(Target.class.getName(),
+                    methodName, null, null);
+            fail(methodName + " did not throw");
+        }
+        catch (InvocationTargetException e) {
+            assertSame(expected, e.getCause());
+        }
+    }
+}
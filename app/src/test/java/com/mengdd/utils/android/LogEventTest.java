@@ -0,0 +1,69 @@
+package com.mengdd.utils.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mengdd.utils.log.MemoryLogSink;
+import com.mengdd.utils.log.StreamLogSink;
+
+public class LogEventTest {
+
+    private MemoryLogSink mSink;
+
+    @Before
+    public void setUp() {
+        mSink = new MemoryLogSink(16);
+        LogUtils.setSink(mSink);
+        LogUtils.setEventFormat(LogEvent.FORMAT_TEXT);
+    }
+
+    @After
+    public void tearDown() {
+        LogUtils.setSink(new StreamLogSink(System.out));
+    }
+
+    @Test
+    public void abandonedEventLeavesThePool() {
+        LogUtils.event("LogEventTest").msg("never logged");
+
+        LogEvent first = LogUtils.event("LogEventTest");
+        first.log();
+        LogEvent second = LogUtils.event("LogEventTest");
+        second.log();
+
+        assertSame(first, second);
+        assertEquals(2, mSink.getCount());
+    }
+
+    @Test
+    public void textValuesAreQuotedAndEscaped() {
+        LogUtils.event("LogEventTest").msg("m").kv("a", "x y")
+                .kv("b", "k=v").kv("c", "line\nbreak")
+                .kv("d", "say \"hi\"").kv("e", "plain").log();
+
+        assertEquals("m a=\"x y\" b=\"k=v\" c=\"line\\nbreak\""
+                + " d=\"say \\\"hi\\\"\" e=plain",
+                mSink.getEntries().get(0).msg);
+    }
+
+    @Test
+    public void boxedNonFiniteNumbersAreJsonNull() {
+        LogUtils.setEventFormat(LogEvent.FORMAT_JSON);
+        LogUtils.event("LogEventTest").kv("a", (Object) Double.NaN)
+                .kv("b", (Object) Float.POSITIVE_INFINITY)
+                .kv("c", new LogEvent.Value() {
+                    @Override
+                    public Object get() {
+                        return Double.NEGATIVE_INFINITY;
+                    }
+                }).kv("d", (Object) 1.5f).log();
+
+        String json = mSink.getEntries().get(0).msg;
+        assertTrue(json, json.endsWith(",\"a\":null,\"b\":null,\"c\":null,\"d\":1.5}"));
+    }
+}
@@ -0,0 +1,221 @@
+package com.mengdd.utils.android;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+public class PrefStoreTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        PrefStore.setBackendFactory(SharedPreferencesBackend.FACTORY);
+    }
+
+    @Test
+    public void oneNotificationPerSet() {
+        final QueuedPrefs prefs = new QueuedPrefs();
+        PrefStore.setBackendFactory(new PrefBackend.Factory() {
+            @Override
+            public PrefBackend open(Context context, String name) {
+                return new SharedPreferencesBackend(prefs);
+            }
+        });
+        PrefStore store = PrefStore.get(null, "oneNotificationPerSet");
+        TypedPref<Integer> count = TypedPref.ofInt("oneNotificationPerSet",
+                "count", 0);
+        final AtomicInteger notified = new AtomicInteger();
+        PrefStore.KeyListener listener = new PrefStore.KeyListener() {
+            @Override
+            public void onKeyChanged(PrefStore s, String key) {
+                notified.incrementAndGet();
+            }
+        };
+        store.subscribe("count", listener, DIRECT);
+
+        for (int i = 1; i <= 3; i++) {
+            store.set(count, i);
+            assertEquals(i, notified.get());
+            store.flush();
+            // the callbacks of our commit, as posted to the main thread
+            prefs.deliverCallbacks();
+            assertEquals(i, notified.get());
+            assertEquals(Integer.valueOf(i), store.get(count));
+        }
+
+        // a change made by other code is still reported
+        prefs.edit().putInt("count", 42).commit();
+        prefs.deliverCallbacks();
+        assertEquals(4, notified.get());
+        assertEquals(Integer.valueOf(42), store.get(count));
+    }
+
+    /**
+     * SharedPreferences whose change callbacks are queued until
+     * deliverCallbacks(), like the main thread posts of the framework.
+     */
+    private static final class QueuedPrefs implements SharedPreferences {
+        private final Map<String, Object> mValues = new HashMap<String, Object>();
+        private final List<OnSharedPreferenceChangeListener> mListeners = new ArrayList<OnSharedPreferenceChangeListener>();
+        private final List<String> mQueued = new ArrayList<String>();
+
+        synchronized void deliverCallbacks() {
+            for (String key : mQueued) {
+                for (OnSharedPreferenceChangeListener listener : mListeners) {
+                    listener.onSharedPreferenceChanged(this, key);
+                }
+            }
+            mQueued.clear();
+        }
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<String, Object>(mValues);
+        }
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            return mValues.containsKey(key) ? (String) mValues.get(key)
+                    : defValue;
+        }
+
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized int getInt(String key, int defValue) {
+            return mValues.containsKey(key) ? (Integer) mValues.get(key)
+                    : defValue;
+        }
+
+        @Override
+        public synchronized long getLong(String key, long defValue) {
+            return mValues.containsKey(key) ? (Long) mValues.get(key)
+                    : defValue;
+        }
+
+        @Override
+        public synchronized float getFloat(String key, float defValue) {
+            return mValues.containsKey(key) ? (Float) mValues.get(key)
+                    : defValue;
+        }
+
+        @Override
+        public synchronized boolean getBoolean(String key, boolean defValue) {
+            return mValues.containsKey(key) ? (Boolean) mValues.get(key)
+                    : defValue;
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return mValues.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new QueuedEditor();
+        }
+
+        @Override
+        public synchronized void registerOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+            mListeners.add(listener);
+        }
+
+        @Override
+        public synchronized void unregisterOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+            mListeners.remove(listener);
+        }
+
+        private final class QueuedEditor implements Editor {
+            private final Map<String, Object> mEdits = new LinkedHashMap<String, Object>();
+
+            @Override
+            public Editor putString(String key, String value) {
+                mEdits.put(key, value);
+                return this;
+            }
+
+            public Editor putStringSet(String key, Set<String> values) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                mEdits.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                mEdits.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                mEdits.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                mEdits.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                mEdits.put(key, null);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (QueuedPrefs.this) {
+                    for (Map.Entry<String, Object> entry : mEdits.entrySet()) {
+                        if (entry.getValue() == null) {
+                            mValues.remove(entry.getKey());
+                        }
+                        else {
+                            mValues.put(entry.getKey(), entry.getValue());
+                        }
+                        mQueued.add(entry.getKey());
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        }
+    }
+}
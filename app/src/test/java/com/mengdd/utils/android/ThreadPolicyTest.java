@@ -0,0 +1,83 @@
+package com.mengdd.utils.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mengdd.utils.FileUtils;
+
+public class ThreadPolicyTest {
+
+    private final List<ThreadPolicy.Violation> mViolations = new ArrayList<ThreadPolicy.Violation>();
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("ThreadPolicyTest", "");
+        mDir.delete();
+        ThreadPolicy.setViolationHandler(new ThreadPolicy.ViolationHandler() {
+            @Override
+            public void onViolation(ThreadPolicy.Violation violation) {
+                mViolations.add(violation);
+            }
+        });
+        ThreadPolicy.addCheck(ThreadPolicy.forThread(Thread.currentThread()));
+    }
+
+    @After
+    public void tearDown() {
+        ThreadPolicy.reset();
+        FileUtils.deleteQuietly(mDir);
+    }
+
+    @Test
+    public void nestedCallsAreReportedOnce() throws IOException {
+        FileUtils.forceMkdir(new File(mDir, "a/b"));
+        FileUtils.copyFile(writeFile(new File(mDir, "a/src")), new File(mDir,
+                "a/b/dest"));
+        mViolations.clear();
+
+        FileUtils.deleteDirectory(mDir);
+
+        assertFalse(mDir.exists());
+        assertEquals(1, mViolations.size());
+        assertEquals("deleteDirectory", mViolations.get(0).getOperation());
+
+        // the previous report ended, the next call is reported again
+        FileUtils.forceMkdir(mDir);
+        assertEquals(2, mViolations.size());
+        assertEquals("forceMkdir", mViolations.get(1).getOperation());
+    }
+
+    @Test
+    public void copyIsReportedAsOneCall() throws IOException {
+        FileUtils.forceMkdir(mDir);
+        File src = writeFile(new File(mDir, "src"));
+        mViolations.clear();
+
+        FileUtils.copyFile(src, new File(mDir, "dest"));
+
+        assertEquals(1, mViolations.size());
+        assertEquals("copyFile", mViolations.get(0).getOperation());
+    }
+
+    private static File writeFile(File file) throws IOException {
+        FileOutputStream out = FileUtils.openOutputStream(file);
+        try {
+            out.write(new byte[] { 1, 2, 3 });
+        }
+        finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,130 @@
+package com.mengdd.utils.kv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedKeyValueStoreTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("MappedKeyValueStoreTest", ".mkv");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void corruptTailIsDropped() throws IOException {
+        MappedKeyValueStore store = MappedKeyValueStore.open(mFile);
+        store.put("a", 1);
+        int tail = store.getUsedBytes();
+        store.put("b", "two");
+        store.close();
+
+        // a torn write of the last record
+        flipByte(tail + 10);
+
+        store = MappedKeyValueStore.open(mFile);
+        assertEquals(1, store.getInt("a", 0));
+        assertFalse(store.contains("b"));
+        assertEquals(tail, store.getUsedBytes());
+
+        // appended where the valid records end
+        store.put("c", 3L);
+        store.close();
+        store = MappedKeyValueStore.open(mFile);
+        assertEquals(1, store.getInt("a", 0));
+        assertEquals(3L, store.getLong("c", 0));
+        store.close();
+    }
+
+    @Test
+    public void batchIsAppliedEntirelyOrNotAtAll() throws IOException {
+        MappedKeyValueStore store = MappedKeyValueStore.open(mFile);
+        store.put("a", "old");
+        int tail = store.getUsedBytes();
+        Map<String, Object> batch = new LinkedHashMap<String, Object>();
+        batch.put("a", "new");
+        batch.put("b", true);
+        batch.put("c", 1.5f);
+        store.write(batch);
+        assertEquals("new", store.getString("a", null));
+        store.close();
+
+        store = MappedKeyValueStore.open(mFile);
+        assertEquals("new", store.getString("a", null));
+        assertTrue(store.getBoolean("b", false));
+        assertEquals(3, store.size());
+        store.close();
+
+        // corrupt the last entry of the batch, none of it survives
+        flipByte(store.getUsedBytes() - 1);
+        store = MappedKeyValueStore.open(mFile);
+        assertEquals("old", store.getString("a", null));
+        assertNull(store.get("b"));
+        assertNull(store.get("c"));
+        assertEquals(tail, store.getUsedBytes());
+        store.close();
+    }
+
+    @Test
+    public void compactKeepsOnlyCurrentValues() throws IOException {
+        MappedKeyValueStore store = MappedKeyValueStore.open(mFile);
+        for (int i = 0; i < 1000; i++) {
+            store.put("counter", i);
+            store.put("removed", "value " + i);
+        }
+        store.put("removed", null);
+        store.put("kept", "kept");
+        int before = store.getUsedBytes();
+
+        store.compact();
+
+        assertTrue(before + " -> " + store.getUsedBytes(),
+                store.getUsedBytes() < 100);
+        assertEquals(999, store.getInt("counter", -1));
+        assertFalse(store.contains("removed"));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+
+        // still writable, and the compacted file reads back the same
+        store.put("after", 1);
+        store.close();
+        store = MappedKeyValueStore.open(mFile);
+        assertEquals(999, store.getInt("counter", -1));
+        assertEquals("kept", store.getString("kept", null));
+        assertEquals(1, store.getInt("after", 0));
+        assertEquals(3, store.size());
+        store.close();
+    }
+
+    private void flipByte(int offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xff);
+        }
+        finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.mengdd.utils.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AsyncLogSinkTest {
+
+    @Test
+    public void failingWriteDoesNotStopTheThread() {
+        RecordingSink delegate = new RecordingSink();
+        delegate.failOn = "boom";
+        AsyncLogSink sink = new AsyncLogSink(delegate, 16);
+
+        sink.write(4, "tag", "boom");
+        sink.write(4, "tag", "after");
+        sink.flush();
+
+        assertEquals(1, delegate.written.size());
+        assertEquals("after", delegate.written.get(0));
+        assertEquals(1, sink.getDroppedCount());
+        sink.close();
+    }
+
+    @Test
+    public void templatesReachTheDelegate() {
+        RecordingSink delegate = new RecordingSink();
+        AsyncLogSink sink = new AsyncLogSink(delegate, 16);
+        StringBuilder mutable = new StringBuilder("before");
+
+        sink.writeTemplate(4, "tag", "{} of {}", new Object[] { 3, mutable });
+        mutable.append(" changed");
+        sink.flush();
+
+        assertEquals(1, delegate.templates.size());
+        assertEquals("{} of {}", delegate.templates.get(0));
+        Object[] args = delegate.args.get(0);
+        assertEquals(Integer.valueOf(3), args[0]);
+        // converted when queued
+        assertEquals("before", args[1]);
+        assertSame(String.class, args[1].getClass());
+        sink.close();
+    }
+
+    @Test
+    public void closeWritesEverythingBeforeClosingTheDelegate() {
+        RecordingSink delegate = new RecordingSink();
+        delegate.writeDelayMs = 5;
+        AsyncLogSink sink = new AsyncLogSink(delegate, 64);
+
+        for (int i = 0; i < 50; i++) {
+            sink.write(4, "tag", "msg " + i);
+        }
+        sink.close();
+        sink.write(4, "tag", "after close");
+
+        assertEquals(50, delegate.written.size());
+        assertEquals("msg 49", delegate.written.get(49));
+        assertEquals(0, delegate.writesAfterClose);
+        assertEquals(1, delegate.closeCount);
+        assertEquals(1, sink.getDroppedCount());
+    }
+
+    @Test
+    public void closeRacingWithWritesLosesNothing() throws Exception {
+        RecordingSink delegate = new RecordingSink();
+        delegate.writeDelayMs = 2;
+        final AsyncLogSink sink = new AsyncLogSink(delegate, 16);
+        final int count = 100;
+        Thread writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    sink.write(4, "tag", "msg " + i);
+                    try {
+                        Thread.sleep(1);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+
+        writer.start();
+        Thread.sleep(20);
+        sink.close();
+        writer.join();
+
+        assertEquals(0, delegate.writesAfterClose);
+        assertEquals(count, delegate.written.size() + sink.getDroppedCount());
+    }
+
+    private static final class RecordingSink implements LogSink {
+        final List<String> written = new ArrayList<String>();
+        final List<String> templates = new ArrayList<String>();
+        final List<Object[]> args = new ArrayList<Object[]>();
+        String failOn;
+        long writeDelayMs;
+        int writesAfterClose;
+        int closeCount;
+
+        @Override
+        public synchronized int write(int priority, String tag, String msg) {
+            if (closeCount > 0) {
+                writesAfterClose++;
+            }
+            if (writeDelayMs > 0) {
+                try {
+                    Thread.sleep(writeDelayMs);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (msg.equals(failOn)) {
+                throw new IllegalStateException(msg);
+            }
+            written.add(msg);
+            return 0;
+        }
+
+        @Override
+        public synchronized int writeTemplate(int priority, String tag,
+                String template, Object[] args) {
+            templates.add(template);
+            this.args.add(args);
+            return 0;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public synchronized void close() {
+            closeCount++;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.mengdd.utils.reflect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ReflectCacheTest {
+
+    private static final Class<?>[] PARAM_TYPES = { int.class, int.class };
+
+    public static final class Target {
+        public static int add(int a, int b) {
+            return a + b;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        ReflectCache.clear();
+    }
+
+    @Test
+    public void appClassEntriesSurviveGc() throws Exception {
+        Method method = ReflectCache.getMethod(Target.class, "add",
+                PARAM_TYPES);
+        System.gc();
+        assertSame(method,
+                ReflectCache.getMethod(Target.class, "add", PARAM_TYPES));
+    }
+
+    @Test
+    public void unreferencedLoaderIsCollected() throws Exception {
+        WeakReference<ClassLoader> loader = cacheInOwnLoader();
+        for (int i = 0; i < 100 && loader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(loader.get());
+    }
+
+    @Test
+    public void reusedParamTypesArrayDoesNotChangeCachedKey()
+            throws Exception {
+        Class<?>[] types = { int.class, int.class };
+        Method method = ReflectCache.getMethod(Target.class, "add", types);
+        types[1] = long.class;
+        try {
+            ReflectCache.getMethod(Target.class, "add", types);
+            fail("add(int, long) found");
+        }
+        catch (NoSuchMethodException expected) {
+            // not declared
+        }
+        assertSame(method,
+                ReflectCache.getMethod(Target.class, "add", int.class,
+                        int.class));
+    }
+
+    /**
+     * Caches members of a copy of Target defined by a new loader, which is
+     * only referenced by the returned weak reference afterwards.
+     */
+    private static WeakReference<ClassLoader> cacheInOwnLoader()
+            throws Exception {
+        URL classes = Target.class.getProtectionDomain().getCodeSource()
+                .getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[] { classes }, null);
+        Class<?> cls = loader.loadClass(Target.class.getName());
+        assertTrue(cls != Target.class);
+        Method method = ReflectCache.getMethod(cls, "add", PARAM_TYPES);
+        assertEquals(3, method.invoke(null, 1, 2));
+        assertSame(method, ReflectCache.getMethod(cls, "add", PARAM_TYPES));
+        ReflectCache.getDeclaredMethod(cls, "add", PARAM_TYPES);
+        MethodInvoker.of(method);
+        return new WeakReference<ClassLoader>(loader);
+    }
+}
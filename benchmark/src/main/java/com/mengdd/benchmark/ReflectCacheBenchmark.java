@@ -0,0 +1,70 @@
+package com.mengdd.benchmark;
+
+import java.lang.reflect.Method;
+
+import com.mengdd.utils.ReflectUtils;
+
+/**
+ * Compares the invocation rate of ReflectUtils.invokePublicStaticMethod,
+ * which resolves through the reflection cache, with looking the method up
+ * on every call as ReflectUtils did before.
+ */
+public class ReflectCacheBenchmark {
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 200000;
+    private static final int ROUNDS = 5;
+
+    private static final String TARGET = Target.class.getName();
+    private static final Class<?>[] PARAM_TYPES = { int.class, int.class };
+
+    public static final class Target {
+        public static int add(int a, int b) {
+            return a + b;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        uncached(WARMUP);
+        cached(WARMUP);
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            long uncachedSum = uncached(ITERATIONS);
+            long uncachedNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long cachedSum = cached(ITERATIONS);
+            long cachedNanos = System.nanoTime() - start;
+
+            if (uncachedSum != cachedSum) {
+                throw new AssertionError(uncachedSum + " != " + cachedSum);
+            }
+            System.out.println("round " + round + ": uncached "
+                    + rate(uncachedNanos) + " calls/s, cached "
+                    + rate(cachedNanos) + " calls/s");
+        }
+    }
+
+    private static long uncached(int count) throws Exception {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            Class<?> cls = Class.forName(TARGET);
+            Method method = cls.getMethod("add", PARAM_TYPES);
+            sum += (Integer) method.invoke(null, i, 1);
+        }
+        return sum;
+    }
+
+    private static long cached(int count) throws Exception {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += (Integer) ReflectUtils.invokePublicStaticMethod(TARGET,
+                    "add", PARAM_TYPES, new Object[] { i, 1 });
+        }
+        return sum;
+    }
+
+    private static long rate(long nanos) {
+        return ITERATIONS * 1000000000L / Math.max(nanos, 1);
+    }
+}
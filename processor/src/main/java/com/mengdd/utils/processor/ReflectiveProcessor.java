@@ -0,0 +1,264 @@
+package com.mengdd.utils.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates com.mengdd.utils.reflect.GeneratedReflectRegistry, which registers
+ * a factory for the public no-arg constructor and an invoker for every public
+ * static method of the classes annotated with
+ * com.mengdd.utils.reflect.Reflective, so ReflectUtils can create and call
+ * them without runtime reflection.
+ */
+public class ReflectiveProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "com.mengdd.utils.reflect.Reflective";
+    static final String PACKAGE = "com.mengdd.utils.reflect";
+    static final String REGISTRY = "GeneratedReflectRegistry";
+
+    private boolean mWritten;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils()
+                .getTypeElement(ANNOTATION);
+        if (annotation == null) {
+            return false;
+        }
+        List<TypeElement> classes = new ArrayList<TypeElement>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (isAccessible(element)) {
+                classes.add((TypeElement) element);
+            }
+        }
+        if (classes.isEmpty()) {
+            return true;
+        }
+        if (mWritten) {
+            // the registry can only be written once, and the classes of the
+            // first round are normally all of them
+            for (TypeElement type : classes) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.WARNING,
+                        "@Reflective class generated in a later round is not registered",
+                        type);
+            }
+            return true;
+        }
+        mWritten = true;
+        writeRegistry(classes);
+        return true;
+    }
+
+    private boolean isAccessible(Element element) {
+        for (Element e = element; e.getKind() != ElementKind.PACKAGE; e = e
+                .getEnclosingElement()) {
+            boolean nested = e.getEnclosingElement().getKind() != ElementKind.PACKAGE;
+            if (!e.getModifiers().contains(Modifier.PUBLIC)
+                    || (nested && !e.getModifiers().contains(Modifier.STATIC))) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.ERROR,
+                        "@Reflective classes and their enclosing classes must be public"
+                                + " and nested classes static", element);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeRegistry(List<TypeElement> classes) {
+        StringBuilder out = new StringBuilder();
+        out.append("// Generated by ").append(getClass().getName())
+                .append(", do not edit.\n");
+        out.append("package ").append(PACKAGE).append(";\n\n");
+        out.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+        out.append("public final class ").append(REGISTRY)
+                .append(" implements ReflectRegistry.Loader {\n\n");
+        out.append("    @Override\n");
+        out.append("    public void load() {\n");
+        for (TypeElement type : classes) {
+            writeClass(out, type);
+        }
+        out.append("    }\n");
+        out.append("}\n");
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                    PACKAGE + "." + REGISTRY,
+                    classes.toArray(new Element[classes.size()]));
+            Writer writer = file.openWriter();
+            try {
+                writer.write(out.toString());
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not write " + REGISTRY + ": " + e);
+        }
+    }
+
+    private void writeClass(StringBuilder out, TypeElement type) {
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type)
+                .toString();
+        String sourceName = type.getQualifiedName().toString();
+        boolean isAbstract = type.getModifiers().contains(Modifier.ABSTRACT)
+                || type.getKind() != ElementKind.CLASS;
+
+        for (Element member : type.getEnclosedElements()) {
+            Set<Modifier> modifiers = member.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC)) {
+                continue;
+            }
+            if (member.getKind() == ElementKind.CONSTRUCTOR && !isAbstract) {
+                ExecutableElement constructor = (ExecutableElement) member;
+                if (constructor.getParameters().isEmpty()
+                        && constructor.getThrownTypes().isEmpty()) {
+                    out.append("        ReflectRegistry.registerFactory(\"")
+                            .append(binaryName)
+                            .append("\", new ObjectFactory<Object>() {\n");
+                    out.append("            @Override\n");
+                    out.append("            public Object create() {\n");
+                    out.append("                return new ").append(sourceName)
+                            .append("();\n");
+                    out.append("            }\n");
+                    out.append("        });\n");
+                }
+            }
+            else if (member.getKind() == ElementKind.METHOD
+                    && modifiers.contains(Modifier.STATIC)) {
+                writeMethod(out, binaryName, sourceName,
+                        (ExecutableElement) member);
+            }
+        }
+    }
+
+    private void writeMethod(StringBuilder out, String binaryName,
+            String sourceName, ExecutableElement method) {
+        List<? extends VariableElement> params = method.getParameters();
+        out.append("        ReflectRegistry.registerStaticMethod(\"")
+                .append(binaryName).append("\", \"")
+                .append(method.getSimpleName()).append("\", new String[] {");
+        for (int i = 0; i < params.size(); i++) {
+            out.append(i > 0 ? ", \"" : " \"")
+                    .append(className(params.get(i).asType())).append('"');
+        }
+        out.append(params.isEmpty() ? "}" : " }");
+        out.append(", new StaticInvoker() {\n");
+        out.append("            @Override\n");
+        out.append("            public Object invoke(Object[] args) throws Exception {\n");
+
+        StringBuilder call = new StringBuilder();
+        call.append(sourceName).append('.').append(method.getSimpleName())
+                .append('(');
+        for (int i = 0; i < params.size(); i++) {
+            if (i > 0) {
+                call.append(", ");
+            }
+            appendArgument(call, params.get(i).asType(), i);
+        }
+        call.append(')');
+
+        if (method.getReturnType().getKind() == TypeKind.VOID) {
+            out.append("                ").append(call).append(";\n");
+            out.append("                return null;\n");
+        }
+        else {
+            out.append("                return ").append(call).append(";\n");
+        }
+        out.append("            }\n");
+        out.append("        });\n");
+    }
+
+    private void appendArgument(StringBuilder out, TypeMirror type, int index) {
+        TypeKind kind = type.getKind();
+        if (kind.isPrimitive()) {
+            TypeElement boxed = processingEnv.getTypeUtils()
+                    .boxedClass(processingEnv.getTypeUtils()
+                            .getPrimitiveType(kind));
+            out.append("((").append(boxed.getQualifiedName())
+                    .append(") args[").append(index).append("]).")
+                    .append(kind.name().toLowerCase(Locale.US)).append("Value()");
+        }
+        else {
+            out.append("(")
+                    .append(processingEnv.getTypeUtils().erasure(type))
+                    .append(") args[").append(index).append(']');
+        }
+    }
+
+    /**
+     * The name Class.getName() returns for the erasure of the type.
+     */
+    private String className(TypeMirror type) {
+        TypeKind kind = type.getKind();
+        if (kind.isPrimitive()) {
+            return kind.name().toLowerCase(Locale.US);
+        }
+        if (kind == TypeKind.ARRAY) {
+            return "[" + descriptor(((ArrayType) type).getComponentType());
+        }
+        TypeMirror erasure = processingEnv.getTypeUtils().erasure(type);
+        Element element = processingEnv.getTypeUtils().asElement(erasure);
+        return processingEnv.getElementUtils()
+                .getBinaryName((TypeElement) element).toString();
+    }
+
+    private String descriptor(TypeMirror type) {
+        switch (type.getKind()) {
+        case BOOLEAN:
+            return "Z";
+        case BYTE:
+            return "B";
+        case CHAR:
+            return "C";
+        case SHORT:
+            return "S";
+        case INT:
+            return "I";
+        case LONG:
+            return "J";
+        case FLOAT:
+            return "F";
+        case DOUBLE:
+            return "D";
+        case ARRAY:
+            return "[" + descriptor(((ArrayType) type).getComponentType());
+        default:
+            return "L" + className(type) + ";";
+        }
+    }
+}